@@ -0,0 +1,16 @@
+#!/bin/bash
+# Builds the benchmarks and runs them, saving the results as JSON so runs
+# from different releases can be compared:
+#   ./run.sh                       every benchmark
+#   ./run.sh RoundBenchmark -prof gc   any JMH arguments
+# Results go to results/NAME.json, where NAME is $BENCH_NAME or else the
+# current git tag or commit.
+set -e
+cd "$(dirname "$0")"
+
+name="${BENCH_NAME:-$(git describe --tags --always --dirty 2>/dev/null || date +%Y%m%d-%H%M%S)}"
+mkdir -p results
+
+mvn -B -q package
+java -jar target/benchmarks.jar -rf json -rff "results/$name.json" "$@"
+echo "Results saved to bench/results/$name.json"
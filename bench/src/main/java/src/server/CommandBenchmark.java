@@ -0,0 +1,103 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Command lines per second on one thread. parseTable and parseIfElseChain
+// only recognise a mix of lines, the new dispatcher against the old chain
+// of comparisons; handleLine runs the same mix through a registered player,
+// handlers included.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+    // Commands that leave the server as it was: no match, no invitations
+    private static final String[] LINES = { "score", "players", "R", "y", "n nobody", "play nobody coffee",
+            "PLAY nobody", "yes", "s", "bogus command" };
+
+    private int next;
+    private Blackhole blackhole;
+    private CommandDispatcher table;
+    private RPSServer server;
+    private ClientHandler player;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        CommandDispatcher.Handler consume = (client, argument) -> blackhole.consume(argument);
+        table = new CommandDispatcher()
+                .register("play", true, consume)
+                .register("y", true, consume)
+                .register("yes", false, consume)
+                .register("n", true, consume)
+                .register("no", false, consume)
+                .register("score", false, consume)
+                .register("players", false, consume)
+                .register("R", false, consume)
+                .register("P", false, consume)
+                .register("S", false, consume);
+
+        server = new RPSServer(MatchmakingBenchmark.scratchConfig());
+        player = new ClientHandler(MatchmakingBenchmark.NullConnection.INSTANCE, server);
+        player.handleLine("player");
+    }
+
+    private String nextLine() {
+        String line = LINES[next];
+        next = next + 1 == LINES.length ? 0 : next + 1;
+        return line;
+    }
+
+    @Benchmark
+    public boolean parseTable() {
+        return table.dispatch(null, nextLine());
+    }
+
+    @Benchmark
+    public boolean parseIfElseChain() {
+        return ifElseChain(nextLine());
+    }
+
+    @Benchmark
+    public void handleLine() {
+        player.handleLine(nextLine());
+    }
+
+    // How ClientHandler used to tell commands apart
+    private boolean ifElseChain(String inputLine) {
+        if (inputLine.equalsIgnoreCase("play")) {
+            blackhole.consume(inputLine);
+        } else if (inputLine.equalsIgnoreCase("play coffee")) {
+            blackhole.consume(inputLine);
+        } else if (inputLine.toLowerCase().startsWith("play ")) {
+            String targetInput = inputLine.substring(5).trim();
+            if (targetInput.toLowerCase().endsWith(" coffee")) {
+                blackhole.consume(targetInput.substring(0, targetInput.lastIndexOf(" ")).trim());
+            } else {
+                blackhole.consume(targetInput);
+            }
+        } else if (inputLine.equalsIgnoreCase("y") || inputLine.equalsIgnoreCase("yes")) {
+            blackhole.consume(inputLine);
+        } else if (inputLine.equalsIgnoreCase("n") || inputLine.equalsIgnoreCase("no")) {
+            blackhole.consume(inputLine);
+        } else if (inputLine.toLowerCase().startsWith("y ") || inputLine.toLowerCase().startsWith("n ")) {
+            blackhole.consume(inputLine.substring(2).trim());
+        } else if (inputLine.equalsIgnoreCase("score")) {
+            blackhole.consume(inputLine);
+        } else if (inputLine.equalsIgnoreCase("players")) {
+            blackhole.consume(inputLine);
+        } else if (inputLine.equalsIgnoreCase("R") || inputLine.equalsIgnoreCase("P")
+                || inputLine.equalsIgnoreCase("S")) {
+            blackhole.consume(inputLine.toUpperCase());
+        } else {
+            return false;
+        }
+        return true;
+    }
+}
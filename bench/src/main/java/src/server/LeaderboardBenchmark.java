@@ -0,0 +1,68 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Leaderboard upkeep and queries as the number of players grows: a won
+// round, a 'rank', and a 'top' right after a score change (which has to
+// rebuild the snapshot) or with the snapshot still cached.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeaderboardBenchmark {
+    @Param({ "10000", "1000000" })
+    public int players;
+
+    private Leaderboard leaderboard;
+    private String[] nicknames;
+    private int[] scores;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        leaderboard = new Leaderboard();
+        nicknames = new String[players];
+        scores = new int[players];
+        for (int i = 0; i < players; i++) {
+            nicknames[i] = "player" + i;
+            scores[i] = random.nextInt(500);
+            leaderboard.put(nicknames[i], scores[i]);
+        }
+    }
+
+    private int nextPlayer() {
+        int current = next;
+        next = next + 1 == players ? 0 : next + 1;
+        return current;
+    }
+
+    @Benchmark
+    public long winRound() {
+        int player = nextPlayer();
+        int score = ++scores[player];
+        leaderboard.changed(nicknames[player], score - 1, score);
+        return score;
+    }
+
+    @Benchmark
+    public int rank() {
+        return leaderboard.rank(scores[nextPlayer()]);
+    }
+
+    @Benchmark
+    public Leaderboard.Snapshot topAfterWin() {
+        winRound();
+        return leaderboard.snapshot();
+    }
+
+    @Benchmark
+    public Leaderboard.Snapshot topCached() {
+        return leaderboard.snapshot();
+    }
+}
@@ -0,0 +1,77 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Cost of pairing two players with 'play' as the lobby grows. Every other
+// player in the lobby is connected but idle, which is what the old
+// clients.values() scan had to walk past on each 'play'.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchmakingBenchmark {
+    @Param({ "10", "1000", "100000" })
+    public int lobbySize;
+
+    private RPSServer server;
+    private ClientHandler first;
+    private ClientHandler second;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new RPSServer(scratchConfig());
+        for (int i = 0; i < lobbySize; i++) {
+            connect("idle" + i);
+        }
+        first = connect("first");
+        second = connect("second");
+    }
+
+    @Benchmark
+    public Match playPair() {
+        server.playGame(first);
+        server.playGame(second);
+
+        // Put both players back in the lobby for the next invocation
+        Match match = first.getMatch();
+        match.abandon();
+        first.setMatch(null);
+        second.setMatch(null);
+        return match;
+    }
+
+    // Keeps score files written by the benchmark out of the working directory
+    static ServerConfig scratchConfig() throws IOException {
+        File scores = File.createTempFile("rps-bench", ".dat");
+        scores.delete();
+        scores.deleteOnExit();
+        new File(scores.getPath() + ".journal").deleteOnExit();
+        return ServerConfig.parse(new String[] { "--scores-file=" + scores.getPath() });
+    }
+
+    private ClientHandler connect(String nickname) {
+        ClientHandler handler = new ClientHandler(NullConnection.INSTANCE, server);
+        handler.handleLine(nickname);
+        return handler;
+    }
+
+    // Discards everything the server sends
+    static final class NullConnection implements ClientConnection {
+        static final NullConnection INSTANCE = new NullConnection();
+
+        @Override
+        public void send(ByteBuffer encoded) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Resolving one round: the old String comparisons in determineWinner
+// against the Moves outcome table, cycling through all nine move pairs.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+    private static final String[] LETTERS = { "R", "P", "S" };
+    private static final byte[] MOVES = { Moves.ROCK, Moves.PAPER, Moves.SCISSORS };
+
+    private int pair;
+
+    private int nextPair() {
+        int current = pair;
+        pair = pair + 1 == 9 ? 0 : pair + 1;
+        return current;
+    }
+
+    @Benchmark
+    public int stringComparisons() {
+        int current = nextPair();
+        return determineWinner(LETTERS[current / 3], LETTERS[current % 3]);
+    }
+
+    @Benchmark
+    public int outcomeTable() {
+        int current = nextPair();
+        return Moves.outcome(MOVES[current / 3], MOVES[current % 3]);
+    }
+
+    // RPSServer.determineWinner before moves were bytes
+    private static int determineWinner(String playerMove, String opponentMove) {
+        if (playerMove.equalsIgnoreCase(opponentMove)) {
+            return 0; // Draw
+        }
+
+        if (playerMove.equalsIgnoreCase("R") && opponentMove.equalsIgnoreCase("S") ||
+                playerMove.equalsIgnoreCase("P") && opponentMove.equalsIgnoreCase("R") ||
+                playerMove.equalsIgnoreCase("S") && opponentMove.equalsIgnoreCase("P")) {
+            return 1; // Player wins
+        } else {
+            return -1; // Opponent wins
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// One drawn round between two connected players: both moves, the round
+// result and the next-round prompt, formatted for the text or the binary
+// protocol. Run with -prof gc to see the bytes allocated per round.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundBenchmark {
+    @Param({ "false", "true" })
+    public boolean binary;
+
+    private RPSServer server;
+    private ClientHandler first;
+    private ClientHandler second;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new RPSServer(MatchmakingBenchmark.scratchConfig());
+        first = connect("first");
+        second = connect("second");
+        server.playGame(first);
+        server.playGame(second);
+    }
+
+    @Benchmark
+    public void drawRound() {
+        server.handleMove(first, Moves.ROCK);
+        server.handleMove(second, Moves.ROCK);
+    }
+
+    private ClientHandler connect(String nickname) {
+        ClientHandler handler = new ClientHandler(new SinkConnection(), server);
+        if (binary) {
+            handler.handleLine("protocol binary");
+        }
+        handler.handleLine(nickname);
+        return handler;
+    }
+
+    // Copies every message out of its buffer, then drops it
+    static final class SinkConnection implements ClientConnection {
+        final byte[] sink = new byte[4096];
+        long written;
+
+        @Override
+        public void send(ByteBuffer encoded) {
+            int length = encoded.remaining();
+            System.arraycopy(encoded.array(), encoded.arrayOffset() + encoded.position(), sink, 0, length);
+            written += length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Time to load a scores file of the old serialized-HashMap format against
+// the binary snapshot format, each into a fresh score table, and to save the
+// whole table in each format.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScoreFileBenchmark {
+    @Param({ "10000", "1000000" })
+    public int entries;
+
+    private Path serializedFile;
+    private Path binaryFile;
+    private Map<String, Integer> scores;
+    private Path savedSerializedFile;
+    private Path savedSnapshot;
+    private ScoreJournal savedJournal;
+
+    @Setup
+    public void setUp() throws IOException {
+        scores = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            scores.put("player" + i, i % 500);
+        }
+
+        serializedFile = Files.createTempFile("rps-bench", ".ser");
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(serializedFile)))) {
+            out.writeObject(scores);
+        }
+
+        binaryFile = Files.createTempFile("rps-bench", ".dat");
+        try (OutputStream out = Files.newOutputStream(binaryFile)) {
+            ScoreJournal.writeSnapshot(out, scores);
+        }
+
+        savedSerializedFile = Files.createTempFile("rps-bench", ".ser");
+        savedSnapshot = Files.createTempFile("rps-bench", ".dat");
+        savedJournal = new ScoreJournal(savedSnapshot.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(serializedFile);
+        Files.deleteIfExists(binaryFile);
+        Files.deleteIfExists(savedSerializedFile);
+        Files.deleteIfExists(savedSnapshot);
+    }
+
+    @Benchmark
+    public Map<String, Integer> loadSerialized() throws IOException {
+        // What the server used to do: deserialize, then copy into its own table
+        Map<String, Integer> scores = new HashMap<>();
+        scores.putAll(ScoreJournal.readSerializedSnapshot(serializedFile));
+        return scores;
+    }
+
+    // Same loading as JournaledScoreStore.open()
+    @Benchmark
+    public Map<String, ScoreCell> loadBinary() throws IOException {
+        JournaledScoreStore.Table table = new JournaledScoreStore.Table();
+        ScoreJournal.readSnapshot(binaryFile, table);
+        return table.scores;
+    }
+
+    // The old saveScores: a copy of the table serialized straight to the file
+    @Benchmark
+    public Path saveSerialized() throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(savedSerializedFile.toFile()))) {
+            out.writeObject(new HashMap<>(scores));
+        }
+        return savedSerializedFile;
+    }
+
+    // What compaction does now: write a temporary snapshot, fsync it and
+    // move it over the old one. The fsync is included, which the old save
+    // did not do.
+    @Benchmark
+    public Path saveBinary() throws IOException {
+        savedJournal.writeSnapshot(scores);
+        return savedSnapshot;
+    }
+}
@@ -0,0 +1,139 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Score reads and won rounds from 64 threads at once, on the lock-free
+// JournaledScoreStore against its old table: one lock around a HashMap,
+// queueing every change for the writer under that lock. With 16 players
+// every thread fights over the same few; with 100,000 they rarely meet.
+// Both have a thread taking the queued changes, the store's one a real
+// ScoreWriter that journals them to a scratch file.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class ScoreTableBenchmark {
+    @Param({ "16", "100000" })
+    public int players;
+
+    private String[] nicknames;
+    private JournaledScoreStore store;
+    private LockedScores locked;
+
+    @Setup
+    public void setUp() throws IOException {
+        nicknames = new String[players];
+        store = new JournaledScoreStore(MatchmakingBenchmark.scratchConfig(), new LatencyHistogram());
+        store.open();
+        locked = new LockedScores();
+        for (int i = 0; i < players; i++) {
+            nicknames[i] = "player" + i;
+            store.addIfAbsent(nicknames[i]);
+            locked.addIfAbsent(nicknames[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        locked.close();
+    }
+
+    private String anyPlayer() {
+        return nicknames[ThreadLocalRandom.current().nextInt(players)];
+    }
+
+    @Benchmark
+    public int storeGet() {
+        return store.get(anyPlayer());
+    }
+
+    @Benchmark
+    public int storeIncrement() {
+        return store.increment(anyPlayer());
+    }
+
+    @Benchmark
+    public int lockedGet() {
+        return locked.get(anyPlayer());
+    }
+
+    @Benchmark
+    public int lockedIncrement() {
+        return locked.increment(anyPlayer());
+    }
+
+    // JournaledScoreStore before it went lock-free, with the writer's
+    // journal left out: changes are queued, then taken and dropped
+    static final class LockedScores implements Runnable {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, Integer> scores = new HashMap<>();
+        private final BlockingQueue<Object[]> queue = new LinkedBlockingQueue<>();
+        private final Thread writer = new Thread(this, "locked-scores-writer");
+        private volatile boolean running = true;
+
+        LockedScores() {
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        int get(String nickname) {
+            lock.lock();
+            try {
+                return scores.getOrDefault(nickname, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int increment(String nickname) {
+            lock.lock();
+            try {
+                int newScore = scores.getOrDefault(nickname, 0) + 1;
+                scores.put(nickname, newScore);
+                queue.add(new Object[] { nickname, newScore, System.nanoTime() });
+                return newScore;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void addIfAbsent(String nickname) {
+            lock.lock();
+            try {
+                scores.putIfAbsent(nickname, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    if (queue.poll(100, TimeUnit.MILLISECONDS) != null) {
+                        queue.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() {
+            running = false;
+        }
+    }
+}
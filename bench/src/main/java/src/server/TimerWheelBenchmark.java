@@ -0,0 +1,61 @@
+package src.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Setting a move deadline or invitation expiry and cancelling it again
+// (the usual fate of one) with many other timeouts pending: the timer wheel
+// against a ScheduledThreadPoolExecutor, whose delay queue is a binary heap.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWheelBenchmark {
+    @Param({ "1000", "100000", "1000000" })
+    public int pending;
+
+    private static final Runnable NOTHING = () -> {
+    };
+
+    private TimerWheel wheel;
+    private ScheduledThreadPoolExecutor executor;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        wheel = new TimerWheel(100, 512);
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true); // Otherwise cancelled tasks stay queued until due
+        for (int i = 0; i < pending; i++) {
+            long delay = 30 + i % 60; // Spread over more than one turn of the wheel
+            wheel.schedule(NOTHING, delay, TimeUnit.SECONDS);
+            executor.schedule(NOTHING, delay, TimeUnit.SECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private long nextDelay() {
+        next = next + 1 == 60 ? 0 : next + 1;
+        return 30 + next;
+    }
+
+    @Benchmark
+    public boolean wheelScheduleAndCancel() {
+        return wheel.schedule(NOTHING, nextDelay(), TimeUnit.SECONDS).cancel();
+    }
+
+    @Benchmark
+    public boolean executorScheduleAndCancel() {
+        ScheduledFuture<?> future = executor.schedule(NOTHING, nextDelay(), TimeUnit.SECONDS);
+        return future.cancel(false);
+    }
+}
@@ -5,9 +5,8 @@ mkdir -p bin
 
 # Compile the server and clients
 echo "Compiling the RPS Server and Clients..."
-javac -d bin src/server/RPSServer.java
-javac -d bin src/client/RPSClient.java
-javac -d bin src/client/RPSClientGUI.java
+javac -d bin src/server/*.java
+javac -d bin src/client/*.java
 
 # Create executable scripts
 echo "Creating executable scripts..."
@@ -21,21 +20,29 @@ EOF
 # Create rps client script
 cat > rps << EOF
 #!/bin/bash
-java -cp bin src.client.RPSClient
+java -cp bin src.client.RPSClient "\$@"
 EOF
 
 # Create rps_gui client script
 cat > rps_gui << EOF
 #!/bin/bash
-java -cp bin src.client.RPSClientGUI
+java -cp bin src.client.RPSClientGUI "\$@"
+EOF
+
+# Create rps_bots load generator script
+cat > rps_bots << EOF
+#!/bin/bash
+java -cp bin src.client.LoadGenerator "\$@"
 EOF
 
 # Make the scripts executable
 chmod +x rps_server
 chmod +x rps
 chmod +x rps_gui
+chmod +x rps_bots
 
 echo "Done! You can now run:"
 echo "- Server: './rps_server [port]'" 
 echo "- Text Client: './rps'"
-echo "- GUI Client: './rps_gui'" 
\ No newline at end of file
+echo "- GUI Client: './rps_gui'"
+echo "- Load Generator: './rps_bots [port] --bots=N'" 
\ No newline at end of file
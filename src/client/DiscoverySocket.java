@@ -0,0 +1,78 @@
+package src.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where the clients listen for server heartbeats: the heartbeat port, taking
+// broadcasts and the multicast groups a server may announce itself to
+// (see the server's --discovery options)
+final class DiscoverySocket {
+    static final int PORT = 5001; // Same as server
+    static final String DEFAULT_GROUP = "239.255.83.80"; // Server's default --discovery-group
+    private static final String PREFIX = "RPS_SERVER:";
+
+    private DiscoverySocket() {
+    }
+
+    // Groups from --discovery-group=ADDR[,ADDR] arguments, or the default one
+    static List<String> groups(String[] args) {
+        List<String> groups = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--discovery-group=")) {
+                for (String group : arg.substring("--discovery-group=".length()).split(",")) {
+                    if (!group.trim().isEmpty()) {
+                        groups.add(group.trim());
+                    }
+                }
+            }
+        }
+        if (groups.isEmpty()) {
+            groups.add(DEFAULT_GROUP);
+        }
+        return groups;
+    }
+
+    // A group that cannot be joined (no IPv6, no multicast route) is skipped;
+    // broadcasts and the other groups still arrive
+    static MulticastSocket open(List<String> groups) throws IOException {
+        MulticastSocket socket = new MulticastSocket(PORT);
+        socket.setBroadcast(true);
+        for (String group : groups) {
+            try {
+                socket.joinGroup(new InetSocketAddress(InetAddress.getByName(group), PORT), null);
+            } catch (IOException e) {
+                System.err.println("Not listening on discovery group " + group + ": " + e.getMessage());
+            }
+        }
+        return socket;
+    }
+
+    // "RPS_SERVER:address:port" as { address, port }, or null if it is not a
+    // heartbeat. The port is after the last ':', so IPv6 addresses parse too.
+    // A link-local IPv6 address is only reachable through an interface of
+    // ours, so sourceAddress (the datagram's, scope included) is used instead.
+    static String[] parse(String message, String sourceAddress) {
+        if (!message.startsWith(PREFIX)) {
+            return null;
+        }
+        int colon = message.lastIndexOf(':');
+        if (colon <= PREFIX.length()) {
+            return null;
+        }
+        String port = message.substring(colon + 1).trim();
+        try {
+            Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String address = message.substring(PREFIX.length(), colon);
+        if (address.toLowerCase().startsWith("fe80:")) {
+            address = sourceAddress;
+        }
+        return new String[] { address, port };
+    }
+}
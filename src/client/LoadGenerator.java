@@ -0,0 +1,657 @@
+package src.client;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Headless swarm of bots playing against a server, for capacity planning.
+// Each bot registers, queues with 'play' (or 'play coffee'), accepts every
+// invitation and challenge, plays random moves and queues again after each
+// match, waiting a random think time before each command. Bots speak the
+// text protocol, either all multiplexed over one NIO selector thread or one
+// blocking bot per virtual thread, so the tool itself stays cheap per
+// connection. Reports connect latency, time to match and move round trip
+// percentiles at the end:
+//   java -cp bin src.client.LoadGenerator [port] --bots=1000 --ramp-up-s=10
+public class LoadGenerator {
+    private static final String CHOOSE_NICKNAME = "***Choose a nickname***";
+    private static final String PING = "***ping***";
+    private static final String WAITING_FOR_MOVE = "***Waiting for opponent's move***";
+    private static final String TYPE_PLAY = "***Type 'play' to start a new game***";
+    private static final String OPPONENT_DISCONNECTED = "***Your opponent has disconnected***";
+    private static final String[] MOVES = { "R", "P", "S" };
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+
+    private final Options options;
+    private volatile boolean running = true;
+
+    // Latencies in nanoseconds
+    private final Samples connectTimes = new Samples(); // Connect until the nickname prompt
+    private final Samples matchTimes = new Samples(); // 'play' until the match starts
+    private final Samples roundTrips = new Samples(); // A move until the server's first reply to it
+
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong registered = new AtomicLong();
+    private final AtomicLong matchesPlayed = new AtomicLong(); // Counted by each player
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong(); // Closed by the server during the run
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        new LoadGenerator(options).run();
+    }
+
+    LoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    void run() throws Exception {
+        System.out.println("Starting " + options.bots + " bots against " + options.host + ":" + options.port + " ("
+                + options.mode.name().toLowerCase() + "), ramp-up " + options.rampUpSeconds + " s, think time ~"
+                + options.thinkMillis + " ms, running " + options.durationSeconds + " s");
+
+        long start = System.nanoTime();
+        Swarm swarm = options.mode == Mode.NIO ? new NioSwarm() : new BlockingSwarm();
+        Thread thread = new Thread(swarm, "load-generator");
+        thread.start();
+
+        long end = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            Thread.sleep(Math.min(REPORT_INTERVAL_MILLIS, TimeUnit.NANOSECONDS.toMillis(end - now) + 1));
+            printProgress(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+
+        running = false;
+        swarm.stop();
+        thread.join();
+        printReport();
+    }
+
+    private void printProgress(long seconds) {
+        System.out.println(seconds + " s: " + connected.get() + " connected, " + registered.get() + " registered, "
+                + matchesPlayed.get() / 2 + " matches, " + roundTrips.size() + " moves, " + connectFailures.get()
+                + " connect failures, " + disconnects.get() + " disconnects");
+    }
+
+    private void printReport() {
+        System.out.println();
+        System.out.println("Connect latency: " + connectTimes);
+        System.out.println("Time to match:   " + matchTimes);
+        System.out.println("Move round trip: " + roundTrips);
+    }
+
+    enum Mode {
+        NIO, // One selector thread for every bot
+        VIRTUAL // One blocking bot per virtual thread (Java 21+), platform threads otherwise
+    }
+
+    // Command line options, parsed like the server's:
+    //   [port] [--option=value ...], see usage()
+    static final class Options {
+        String host = "localhost";
+        int port = 5000;
+        Mode mode = Mode.NIO;
+        int bots = 100;
+        int rampUpSeconds = 10; // Connections are spread evenly over this
+        int thinkMillis = 500; // Mean delay before each command, uniform from 0 to twice this
+        int durationSeconds = 60; // From the first connection
+        double coffeeShare = 0.1; // Bots that queue with 'play coffee'
+        String prefix = "bot"; // Nicknames are prefix + number
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    try {
+                        options.port = Integer.parseInt(arg);
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid port number. Using port " + options.port);
+                    }
+                    continue;
+                }
+
+                int eq = arg.indexOf('=');
+                String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+                String value = eq < 0 ? "" : arg.substring(eq + 1);
+                try {
+                    switch (name) {
+                        case "host":
+                            options.host = value;
+                            break;
+                        case "mode":
+                            options.mode = Mode.valueOf(value.toUpperCase());
+                            break;
+                        case "bots":
+                            options.bots = Math.max(1, Integer.parseInt(value));
+                            break;
+                        case "ramp-up-s":
+                            options.rampUpSeconds = Math.max(0, Integer.parseInt(value));
+                            break;
+                        case "think-ms":
+                            options.thinkMillis = Math.max(0, Integer.parseInt(value));
+                            break;
+                        case "duration-s":
+                            options.durationSeconds = Math.max(1, Integer.parseInt(value));
+                            break;
+                        case "coffee":
+                            options.coffeeShare = Math.min(1, Math.max(0, Double.parseDouble(value)));
+                            break;
+                        case "prefix":
+                            options.prefix = value;
+                            break;
+                        case "help":
+                            System.out.println(usage());
+                            System.exit(0);
+                            break;
+                        default:
+                            System.err.println("Unknown option '" + arg + "' ignored");
+                    }
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Invalid value for option '" + arg + "' ignored");
+                }
+            }
+            return options;
+        }
+
+        static String usage() {
+            return "Usage: java -cp bin src.client.LoadGenerator [port] [options]\n"
+                    + "  --host=HOST        server to load (default localhost)\n"
+                    + "  --mode=nio|virtual one selector thread, or a virtual thread per bot (default nio)\n"
+                    + "  --bots=N           connections to open (default 100)\n"
+                    + "  --ramp-up-s=N      seconds over which the bots connect (default 10)\n"
+                    + "  --think-ms=N       mean think time before each command (default 500)\n"
+                    + "  --duration-s=N     length of the run (default 60)\n"
+                    + "  --coffee=F         share of bots that play Coffee Bet games (default 0.1)\n"
+                    + "  --prefix=NAME      nickname prefix (default bot)";
+        }
+    }
+
+    // Recorded latencies; percentiles are taken once, by sorting
+    static final class Samples {
+        private final ReentrantLock lock = new ReentrantLock();
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long nanos) {
+            lock.lock();
+            try {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = nanos;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted;
+            lock.lock();
+            try {
+                sorted = Arrays.copyOf(values, size);
+            } finally {
+                lock.unlock();
+            }
+            if (sorted.length == 0) {
+                return "no samples";
+            }
+            Arrays.sort(sorted);
+            return "n=" + sorted.length + " p50=" + millis(percentile(sorted, 0.50)) + " p90="
+                    + millis(percentile(sorted, 0.90)) + " p99=" + millis(percentile(sorted, 0.99)) + " p99.9="
+                    + millis(percentile(sorted, 0.999)) + " max=" + millis(sorted[sorted.length - 1]);
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            int index = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+    }
+
+    // What a bot does, whichever way its connection is driven. Only ever
+    // called from one thread at a time per bot.
+    private abstract class Bot {
+        final String nickname;
+        final boolean coffee;
+        long connectStartedAt;
+        private boolean registered;
+        private long queuedAt;
+        private long moveSentAt;
+        private boolean awaitingMoveReply;
+
+        Bot(int id) {
+            this.nickname = options.prefix + id;
+            this.coffee = ThreadLocalRandom.current().nextDouble() < options.coffeeShare;
+        }
+
+        // Sends one command line
+        abstract void write(String line);
+
+        // Runs the action after the delay
+        abstract void later(long delayMillis, Runnable action);
+
+        void onLine(String line) {
+            if (line.equals(PING)) {
+                write("pong");
+                return;
+            }
+            long now = System.nanoTime();
+            if (!registered) {
+                if (line.equals(CHOOSE_NICKNAME)) {
+                    connectTimes.add(now - connectStartedAt);
+                    write(nickname);
+                } else if (line.startsWith("***Welcome ")) {
+                    registered = true;
+                    LoadGenerator.this.registered.incrementAndGet();
+                    queue();
+                } else if (line.startsWith("***Nickname")) {
+                    System.err.println(nickname + ": " + line);
+                }
+                return;
+            }
+
+            if (awaitingMoveReply && (line.equals(WAITING_FOR_MOVE) || line.startsWith("***Your move: "))) {
+                roundTrips.add(now - moveSentAt);
+                awaitingMoveReply = false;
+            }
+
+            if (line.startsWith("***You are now playing with ")) {
+                matchTimes.add(now - queuedAt);
+                move();
+            } else if (line.startsWith("***Next round!")) {
+                move();
+            } else if (line.endsWith("(y/n)***")) {
+                // An invitation or a coffee bet challenge
+                write("y");
+            } else if (line.equals(TYPE_PLAY) || line.equals(OPPONENT_DISCONNECTED)) {
+                matchesPlayed.incrementAndGet();
+                queue();
+            }
+        }
+
+        private void queue() {
+            later(thinkTime(), () -> {
+                queuedAt = System.nanoTime();
+                write(coffee ? "play coffee" : "play");
+            });
+        }
+
+        private void move() {
+            later(thinkTime(), () -> {
+                moveSentAt = System.nanoTime();
+                awaitingMoveReply = true;
+                write(MOVES[ThreadLocalRandom.current().nextInt(MOVES.length)]);
+            });
+        }
+
+        private long thinkTime() {
+            return options.thinkMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(2L * options.thinkMillis + 1);
+        }
+    }
+
+    // Starts every bot on schedule and drives them until stop()
+    private interface Swarm extends Runnable {
+        void stop();
+    }
+
+    // Delay before bot i connects, spreading the bots over the ramp-up
+    private long rampUpDelayMillis(int i) {
+        return TimeUnit.SECONDS.toMillis(options.rampUpSeconds) * i / options.bots;
+    }
+
+    // Every bot on one selector thread, with think times and the ramp-up
+    // kept in a timer queue that bounds each select
+    private final class NioSwarm implements Swarm {
+        private final Selector selector;
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+        private long nextTimerSequence;
+
+        NioSwarm() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            for (int i = 0; i < options.bots; i++) {
+                NioBot bot = new NioBot(i);
+                schedule(start + TimeUnit.MILLISECONDS.toNanos(rampUpDelayMillis(i)), bot::connect);
+            }
+
+            try {
+                while (running) {
+                    Timer next = timers.peek();
+                    long wait = next == null ? 0 : TimeUnit.NANOSECONDS.toMillis(next.at - System.nanoTime());
+                    if (next != null && wait <= 0) {
+                        selector.selectNow();
+                    } else {
+                        selector.select(wait);
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        ((NioBot) key.attachment()).onReady(key);
+                    }
+                    selector.selectedKeys().clear();
+
+                    long now = System.nanoTime();
+                    while (!timers.isEmpty() && timers.peek().at <= now) {
+                        timers.poll().action.run();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Load generator error: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((NioBot) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            selector.wakeup();
+        }
+
+        private void schedule(long at, Runnable action) {
+            timers.add(new Timer(at, nextTimerSequence++, action));
+        }
+
+        private final class NioBot extends Bot {
+            private SocketChannel channel;
+            private SelectionKey key;
+            private final ByteBuffer in = ByteBuffer.allocate(4096);
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            private ByteBuffer pending; // Written once the socket accepts more
+            private boolean closed;
+
+            NioBot(int id) {
+                super(id);
+            }
+
+            void connect() {
+                connectStartedAt = System.nanoTime();
+                try {
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    boolean done = channel.connect(new InetSocketAddress(options.host, options.port));
+                    key = channel.register(selector, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+                    if (done) {
+                        connected.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    connectFailures.incrementAndGet();
+                    close();
+                }
+            }
+
+            void onReady(SelectionKey key) {
+                try {
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                        connected.incrementAndGet();
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    if (key.isWritable()) {
+                        flush();
+                    }
+                    if (key.isReadable()) {
+                        read();
+                    }
+                } catch (IOException e) {
+                    if (key.isConnectable()) {
+                        connectFailures.incrementAndGet();
+                    } else {
+                        disconnects.incrementAndGet();
+                    }
+                    close();
+                }
+            }
+
+            private void read() throws IOException {
+                in.clear();
+                int n = channel.read(in);
+                if (n < 0) {
+                    disconnects.incrementAndGet();
+                    close();
+                    return;
+                }
+                in.flip();
+                while (in.hasRemaining() && !closed) {
+                    byte b = in.get();
+                    if (b == '\n') {
+                        onLine(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                        line.reset();
+                    } else if (b != '\r') {
+                        line.write(b);
+                    }
+                }
+            }
+
+            @Override
+            void write(String command) {
+                if (closed) {
+                    return;
+                }
+                byte[] bytes = (command + "\n").getBytes(StandardCharsets.UTF_8);
+                if (pending != null) {
+                    ByteBuffer grown = ByteBuffer.allocate(pending.remaining() + bytes.length);
+                    grown.put(pending).put(bytes).flip();
+                    pending = grown;
+                    return;
+                }
+                pending = ByteBuffer.wrap(bytes);
+                try {
+                    flush();
+                } catch (IOException e) {
+                    disconnects.incrementAndGet();
+                    close();
+                }
+            }
+
+            private void flush() throws IOException {
+                channel.write(pending);
+                if (pending.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                } else {
+                    pending = null;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+
+            @Override
+            void later(long delayMillis, Runnable action) {
+                schedule(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis), () -> {
+                    if (!closed) {
+                        action.run();
+                    }
+                });
+            }
+
+            void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                if (key != null) {
+                    key.cancel();
+                }
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long at;
+        final long sequence; // Keeps timers due at the same time in order
+        final Runnable action;
+
+        Timer(long at, long sequence, Runnable action) {
+            this.at = at;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            int byTime = Long.compare(at - other.at, 0);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // One blocking bot per thread: reads a line, reacts, sleeps through its
+    // think time. Virtual threads when available, so thousands of bots cost
+    // little more than their sockets.
+    private final class BlockingSwarm implements Swarm {
+        private final ExecutorService executor = newBotExecutor();
+        private final Queue<Socket> sockets = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void run() {
+            for (int i = 0; i < options.bots; i++) {
+                int id = i;
+                executor.execute(() -> new BlockingBot(id).run(rampUpDelayMillis(id)));
+            }
+        }
+
+        @Override
+        public void stop() {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Looked up reflectively so the tool still builds and runs on Java 8
+        private ExecutorService newBotExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads need Java 21 or newer. Using platform threads instead.");
+                return Executors.newCachedThreadPool();
+            }
+        }
+
+        private final class BlockingBot extends Bot {
+            private PrintWriter out;
+
+            BlockingBot(int id) {
+                super(id);
+            }
+
+            void run(long delayMillis) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+
+                connectStartedAt = System.nanoTime();
+                Socket socket = new Socket();
+                sockets.add(socket);
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.connect(new InetSocketAddress(options.host, options.port));
+                } catch (IOException e) {
+                    if (running) {
+                        connectFailures.incrementAndGet();
+                    }
+                    return;
+                }
+                connected.incrementAndGet();
+
+                try {
+                    out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    String line;
+                    while (running && (line = in.readLine()) != null) {
+                        onLine(line);
+                    }
+                    if (running) {
+                        disconnects.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        disconnects.incrementAndGet();
+                    }
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            @Override
+            void write(String command) {
+                out.println(command);
+            }
+
+            @Override
+            void later(long delayMillis, Runnable action) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (running) {
+                    action.run();
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package src.client;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -9,19 +10,29 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class RPSClient {
     private Socket socket;
     private PrintWriter out;
-    private BufferedReader in;
+    private ServerMessageReader in;
+    private final boolean binaryProtocol; // Ask the server for compact binary messages
     private Scanner scanner;
     private volatile boolean running = true;
-    private static final int HEARTBEAT_PORT = 5001; // Same as server
     private static final int DISCOVERY_TIMEOUT = 5000; // 5 sec discovery window
     private final Map<String, ServerInfo> discoveredServers = new ConcurrentHashMap<>();
     private final AtomicBoolean discoveryActive = new AtomicBoolean(false);
+    private List<String> discoveryGroups = Collections.singletonList(DiscoverySocket.DEFAULT_GROUP);
 
     public static void main(String[] args) {
-        RPSClient client = new RPSClient();
+        RPSClient client = new RPSClient(Arrays.asList(args).contains("--binary"));
+        client.discoveryGroups = DiscoverySocket.groups(args);
         client.start();
     }
 
+    public RPSClient() {
+        this(false);
+    }
+
+    public RPSClient(boolean binaryProtocol) {
+        this.binaryProtocol = binaryProtocol;
+    }
+
     public void start() {
         scanner = new Scanner(System.in);
 
@@ -78,8 +89,7 @@ public class RPSClient {
     }
 
     private void listenForHeartbeats() {
-        try (DatagramSocket socket = new DatagramSocket(HEARTBEAT_PORT)) {
-            socket.setBroadcast(true);
+        try (MulticastSocket socket = DiscoverySocket.open(discoveryGroups)) {
             socket.setSoTimeout(DISCOVERY_TIMEOUT);
 
             byte[] buffer = new byte[512];
@@ -102,19 +112,17 @@ public class RPSClient {
 
     private void processHeartbeat(String message, String sourceIP) {
         // Parse the heartbeat message
-        if (message.startsWith("RPS_SERVER:") && discoveryActive.get()) {
-            String[] parts = message.split(":");
-            if (parts.length >= 3) {
-                String serverIP = parts[1];
-                int serverPort = Integer.parseInt(parts[2]);
-
-                // Store server info
-                String key = serverIP + ":" + serverPort;
-                // Only add and print if this server wasn't already discovered
-                if (!discoveredServers.containsKey(key)) {
-                    discoveredServers.put(key, new ServerInfo(serverIP, serverPort));
-                    System.out.println("Discovered server: " + key);
-                }
+        String[] parts = DiscoverySocket.parse(message, sourceIP);
+        if (parts != null && discoveryActive.get()) {
+            String serverIP = parts[0];
+            int serverPort = Integer.parseInt(parts[1]);
+
+            // Store server info
+            String key = serverIP + ":" + serverPort;
+            // Only add and print if this server wasn't already discovered
+            if (!discoveredServers.containsKey(key)) {
+                discoveredServers.put(key, new ServerInfo(serverIP, serverPort));
+                System.out.println("Discovered server: " + key);
             }
         }
     }
@@ -157,10 +165,15 @@ public class RPSClient {
     private void connectToServer(String serverIP, int serverPort) {
         try {
             socket = new Socket(serverIP, serverPort);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            in = new ServerMessageReader(socket.getInputStream());
             System.out.println("Connected to server " + serverIP + ":" + serverPort);
 
+            // Must come before the nickname
+            if (binaryProtocol) {
+                out.println(ServerMessageReader.BINARY_REQUEST);
+            }
+
             // Start a thread to handle server messages
             Thread serverThread = new Thread(this::handleServerMessages);
             serverThread.setDaemon(true);
@@ -185,8 +198,13 @@ public class RPSClient {
 
     private void handleServerMessages() {
         try {
-            String message;
-            while (running && (message = in.readLine()) != null) {
+            ServerMessageReader.Message received;
+            while (running && (received = in.read()) != null) {
+                if (received.isPing()) {
+                    out.println(ServerMessageReader.PONG);
+                    continue;
+                }
+                String message = received.toText();
                 System.out.println(message);
 
                 // Check if this is the welcome message after nickname setup
@@ -199,7 +217,10 @@ public class RPSClient {
                     System.out.println("- play NICKNAME: Invite a specific player");
                     System.out.println("- play NICKNAME coffee: Invite a specific player with Coffee Bet Mode");
                     System.out.println("- score: Show your current score");
+                    System.out.println("- top [N]: Show the N best players (default 10)");
+                    System.out.println("- rank: Show your place on the leaderboard");
                     System.out.println("- players: List all online players");
+                    System.out.println("- watch / unwatch: Follow players joining, leaving and starting matches");
                     System.out.println("- R/P/S: Make a move (Rock, Paper, Scissors)");
                     System.out.println("- exit: Disconnect from the server\n");
                 }
@@ -241,9 +262,6 @@ public class RPSClient {
             if (out != null) {
                 out.close();
             }
-            if (in != null) {
-                in.close();
-            }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
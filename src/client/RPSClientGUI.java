@@ -7,6 +7,7 @@ import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -15,12 +16,12 @@ import javax.swing.Timer;
 public class RPSClientGUI extends JFrame {
     private Socket socket;
     private PrintWriter out;
-    private BufferedReader in;
+    private ServerMessageReader in;
     private volatile boolean running = true;
-    private static final int HEARTBEAT_PORT = 5001; // Must match server's heartbeat port
     private static final int DISCOVERY_TIMEOUT = 5000; // Time to wait for server responses in ms
     private final Map<String, ServerInfo> discoveredServers = new ConcurrentHashMap<>();
     private final AtomicBoolean discoveryActive = new AtomicBoolean(false);
+    private java.util.List<String> discoveryGroups = Collections.singletonList(DiscoverySocket.DEFAULT_GROUP);
 
     // Game state
     private boolean inGame = false;
@@ -55,10 +56,19 @@ public class RPSClientGUI extends JFrame {
     private JTextField serverIPField;
     private JTextField serverPortField;
     private JButton connectButton;
+    private JCheckBox binaryProtocolCheckbox;
     private JButton discoverButton;
     private JList<String> serverList;
     private DefaultListModel<String> serverListModel;
 
+    // Live player list, kept up to date by the server after 'watch'
+    private static final String WATCHING = "***Watching players***";
+    private static final String NOT_WATCHING = "***Stopped watching players***";
+    private static final String[] PRESENCE_PREFIXES = { "***Player joined: ", "***Player left: ",
+            "***Player in game: ", "***Player in lobby: " }; // Indexed by change - 1
+    private DefaultListModel<String> onlinePlayersModel;
+    private final java.util.List<String> onlineNicknames = new ArrayList<>(); // Same order as the model
+
     // Icons for Rock, Paper, Scissors
     private ImageIcon rockIcon;
     private ImageIcon paperIcon;
@@ -75,8 +85,12 @@ public class RPSClientGUI extends JFrame {
             e.printStackTrace();
         }
 
+        boolean binaryProtocol = Arrays.asList(args).contains("--binary");
+        java.util.List<String> discoveryGroups = DiscoverySocket.groups(args);
         SwingUtilities.invokeLater(() -> {
             RPSClientGUI client = new RPSClientGUI();
+            client.binaryProtocolCheckbox.setSelected(binaryProtocol);
+            client.discoveryGroups = discoveryGroups;
             client.setVisible(true);
         });
     }
@@ -139,11 +153,13 @@ public class RPSClientGUI extends JFrame {
         JLabel portLabel = new JLabel("Server Port:");
         serverPortField = new JTextField("5000");
         connectButton = new JButton("Connect");
+        binaryProtocolCheckbox = new JCheckBox("Binary protocol");
+        binaryProtocolCheckbox.setToolTipText("Compact game messages; needs a server that supports them");
         manualPanel.add(ipLabel);
         manualPanel.add(serverIPField);
         manualPanel.add(portLabel);
         manualPanel.add(serverPortField);
-        manualPanel.add(new JLabel()); // Empty cell
+        manualPanel.add(binaryProtocolCheckbox);
         manualPanel.add(connectButton);
 
         serverListModel = new DefaultListModel<>();
@@ -280,9 +296,17 @@ public class RPSClientGUI extends JFrame {
         leftPanel.add(gameVisualPanel, BorderLayout.CENTER);
         leftPanel.add(buttonPanel, BorderLayout.SOUTH);
 
+        // Online players
+        onlinePlayersModel = new DefaultListModel<>();
+        JList<String> onlinePlayersList = new JList<>(onlinePlayersModel);
+        JScrollPane onlinePlayersScrollPane = new JScrollPane(onlinePlayersList);
+        onlinePlayersScrollPane.setBorder(BorderFactory.createTitledBorder("Online Players"));
+        onlinePlayersScrollPane.setPreferredSize(new Dimension(160, 0));
+
         // Right side panel with messages
         JPanel rightPanel = new JPanel(new BorderLayout(10, 10));
         rightPanel.add(scrollPane, BorderLayout.CENTER);
+        rightPanel.add(onlinePlayersScrollPane, BorderLayout.EAST);
         rightPanel.add(inputPanel, BorderLayout.SOUTH);
 
         // Split the game panel
@@ -500,8 +524,7 @@ public class RPSClientGUI extends JFrame {
     }
 
     private void listenForHeartbeats() {
-        try (DatagramSocket socket = new DatagramSocket(HEARTBEAT_PORT)) {
-            socket.setBroadcast(true);
+        try (MulticastSocket socket = DiscoverySocket.open(discoveryGroups)) {
             socket.setSoTimeout(1000); // 1-second timeout to allow loop interruption
 
             byte[] buffer = new byte[512];
@@ -525,27 +548,25 @@ public class RPSClientGUI extends JFrame {
 
     private void processHeartbeat(String message, String sourceIP) {
         // Parse the heartbeat message
-        if (message.startsWith("RPS_SERVER:") && discoveryActive.get()) {
-            String[] parts = message.split(":");
-            if (parts.length >= 3) {
-                // Use the source IP (where the heartbeat came from) instead of the IP in the
-                // message
-                // This ensures we connect to the actual reachable IP address
-                String serverIP = sourceIP;
-                int serverPort = Integer.parseInt(parts[2]);
-
-                // Store server info - use simple server name to avoid duplicates
-                String serverName = "RPS Server @" + serverPort;
-                String key = serverIP + ":" + serverPort;
-
-                if (!discoveredServers.containsKey(key)) {
-                    discoveredServers.put(key, new ServerInfo(serverIP, serverPort));
-                    SwingUtilities.invokeLater(() -> {
-                        // Use a more friendly display name in the UI
-                        serverListModel.addElement(serverName);
-                        appendToGameLog("Discovered server: " + serverName + " (" + key + ")");
-                    });
-                }
+        String[] parts = DiscoverySocket.parse(message, sourceIP);
+        if (parts != null && discoveryActive.get()) {
+            // Use the source IP (where the heartbeat came from) instead of the IP in the
+            // message
+            // This ensures we connect to the actual reachable IP address
+            String serverIP = sourceIP;
+            int serverPort = Integer.parseInt(parts[1]);
+
+            // Store server info - use simple server name to avoid duplicates
+            String serverName = "RPS Server @" + serverPort;
+            String key = serverIP + ":" + serverPort;
+
+            if (!discoveredServers.containsKey(key)) {
+                discoveredServers.put(key, new ServerInfo(serverIP, serverPort));
+                SwingUtilities.invokeLater(() -> {
+                    // Use a more friendly display name in the UI
+                    serverListModel.addElement(serverName);
+                    appendToGameLog("Discovered server: " + serverName + " (" + key + ")");
+                });
             }
         }
     }
@@ -555,14 +576,18 @@ public class RPSClientGUI extends JFrame {
             // Close existing connection if any
             if (out != null) {
                 out.close();
-                in.close();
                 socket.close();
             }
 
             // Attempt to connect
             socket = new Socket(serverIP, serverPort);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            in = new ServerMessageReader(socket.getInputStream());
+
+            // Must come before the nickname
+            if (binaryProtocolCheckbox.isSelected()) {
+                out.println(ServerMessageReader.BINARY_REQUEST);
+            }
 
             // Update UI
             setConnectionStatus(true);
@@ -575,6 +600,7 @@ public class RPSClientGUI extends JFrame {
             nicknameAccepted = false;
             setGameButtonsEnabled(false);
             setChatEnabled(true);
+            clearOnlinePlayers();
 
             // Start a thread to handle server messages
             new Thread(this::handleServerMessages).start();
@@ -590,16 +616,29 @@ public class RPSClientGUI extends JFrame {
 
     private void handleServerMessages() {
         try {
-            String message;
-            while (running && (message = in.readLine()) != null) {
-                final String displayMessage = message;
+            ServerMessageReader.Message message;
+            while (running && (message = in.read()) != null) {
+                if (message.isPing()) {
+                    out.println(ServerMessageReader.PONG);
+                    continue;
+                }
+                final ServerMessageReader.Message received = message;
                 SwingUtilities.invokeLater(() -> {
-                    messageArea.append(displayMessage + "\n");
+                    // Presence changes only update the player list
+                    if (processPresence(received)) {
+                        return;
+                    }
+
+                    messageArea.append(received.toText() + "\n");
                     // Auto-scroll to bottom
                     messageArea.setCaretPosition(messageArea.getDocument().getLength());
 
                     // Process game-specific messages
-                    processGameMessage(displayMessage);
+                    if (received.type == ServerMessageReader.TEXT) {
+                        processGameMessage(received.text);
+                    } else {
+                        processBinaryMessage(received);
+                    }
                 });
             }
         } catch (IOException e) {
@@ -619,6 +658,9 @@ public class RPSClientGUI extends JFrame {
             nicknameAccepted = true;
             setGameButtonsEnabled(true);
 
+            // Fill the player list and keep it live
+            sendCommand("watch");
+
             // Display a quick help tip about coffee bet mode
             appendToGameLog(
                     "TIP: To invite a player with Coffee Bet Mode: 1) Check the Coffee Bet Mode box, 2) Type 'play NICKNAME'");
@@ -636,11 +678,7 @@ public class RPSClientGUI extends JFrame {
 
         // Check for coffee bet mode activation
         else if (message.contains("***Coffee Bet Mode enabled!")) {
-            coffeeBetMode = true;
-            coffeeBetCheckbox.setSelected(true);
-            JOptionPane.showMessageDialog(this,
-                    "Coffee Bet Mode is active for this game! Winner gets a coffee!",
-                    "Coffee Bet Mode", JOptionPane.INFORMATION_MESSAGE);
+            onCoffeeBetEnabled();
         }
 
         // Handle game start message
@@ -649,11 +687,7 @@ public class RPSClientGUI extends JFrame {
             if (parts.length > 1) {
                 parts = parts[1].split("\\*\\*\\*");
                 if (parts.length > 0) {
-                    opponentName = parts[0].trim();
-                    inGame = true;
-                    playerWins = 0;
-                    opponentWins = 0;
-                    updateGameStatus();
+                    onMatchStarted(parts[0].trim());
                 }
             }
         }
@@ -690,66 +724,191 @@ public class RPSClientGUI extends JFrame {
 
         // Handle round win/loss
         else if (message.contains("***You won this round!")) {
-            playerWins++;
+            onRoundResult(1, playerWins + 1, opponentWins);
+        } else if (message.contains("***You lost this round!")) {
+            onRoundResult(-1, playerWins, opponentWins + 1);
+        } else if (message.contains("***It's a draw for this round!")) {
+            onRoundResult(0, playerWins, opponentWins);
+        }
+
+        // Handle game end
+        else if (message.contains("***Congratulations! You've won the match!")) {
+            onMatchWon();
+        } else if (message.contains("***You've lost the match.")) {
+            onMatchLost();
+        }
+
+        // Handle opponent disconnect, and a match called off because
+        // neither player moved in time
+        else if (message.contains("***Your opponent has disconnected***")
+                || message.contains("***Neither player moved in time.")) {
+            onOpponentDisconnected();
+        }
+
+    }
+
+    // Same effects as processGameMessage, taken from the frame's fields
+    // instead of parsed out of text
+    private void processBinaryMessage(ServerMessageReader.Message message) {
+        switch (message.type) {
+            case ServerMessageReader.MATCH_START:
+                if (message.coffeeBet) {
+                    onCoffeeBetEnabled();
+                }
+                winsNeeded = message.winsNeeded;
+                onMatchStarted(message.nickname);
+                break;
+            case ServerMessageReader.ROUND:
+                updateMoveDisplay(String.valueOf(message.move), String.valueOf(message.opponentMove));
+                onRoundResult(message.outcome, message.wins, message.opponentWins);
+                break;
+            case ServerMessageReader.MATCH_END:
+                if (message.outcome > 0) {
+                    onMatchWon();
+                } else if (message.outcome < 0) {
+                    onMatchLost();
+                } else {
+                    onOpponentDisconnected();
+                }
+                break;
+            default:
+                // Scores, prompts and invitations are only shown in the log
+                break;
+        }
+    }
+
+    // True if the message was a presence change and has been applied
+    private boolean processPresence(ServerMessageReader.Message message) {
+        if (message.type == ServerMessageReader.PRESENCE) {
+            onPresenceChanged(message.change, message.nickname);
+            return true;
+        }
+        if (message.type != ServerMessageReader.TEXT) {
+            return false;
+        }
+        String text = message.text;
+        if (text.equals(WATCHING)) {
+            clearOnlinePlayers();
+            return true;
+        }
+        if (text.equals(NOT_WATCHING)) {
+            clearOnlinePlayers(); // Would go stale; still shown in the log
+            return false;
+        }
+        for (int i = 0; i < PRESENCE_PREFIXES.length; i++) {
+            if (text.startsWith(PRESENCE_PREFIXES[i]) && text.endsWith("***")) {
+                onPresenceChanged(i + 1, text.substring(PRESENCE_PREFIXES[i].length(), text.length() - 3));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onPresenceChanged(int change, String nickname) {
+        int index = onlineNicknames.indexOf(nickname);
+        switch (change) {
+            case ServerMessageReader.JOINED:
+                if (index < 0) {
+                    onlineNicknames.add(nickname);
+                    onlinePlayersModel.addElement(nickname);
+                }
+                break;
+            case ServerMessageReader.LEFT:
+                if (index >= 0) {
+                    onlineNicknames.remove(index);
+                    onlinePlayersModel.remove(index);
+                }
+                break;
+            case ServerMessageReader.IN_GAME:
+            case ServerMessageReader.IN_LOBBY:
+                if (index >= 0) {
+                    onlinePlayersModel.set(index,
+                            change == ServerMessageReader.IN_GAME ? nickname + " (in game)" : nickname);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void clearOnlinePlayers() {
+        onlineNicknames.clear();
+        onlinePlayersModel.clear();
+    }
+
+    private void onCoffeeBetEnabled() {
+        coffeeBetMode = true;
+        coffeeBetCheckbox.setSelected(true);
+        JOptionPane.showMessageDialog(this,
+                "Coffee Bet Mode is active for this game! Winner gets a coffee!",
+                "Coffee Bet Mode", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    private void onMatchStarted(String opponent) {
+        opponentName = opponent;
+        inGame = true;
+        playerWins = 0;
+        opponentWins = 0;
+        updateGameStatus();
+    }
+
+    // outcome: 1 won the round, 0 draw, -1 lost
+    private void onRoundResult(int outcome, int wins, int lostRounds) {
+        playerWins = wins;
+        opponentWins = lostRounds;
+        if (outcome > 0) {
             resultLabel.setText("You won!");
             resultLabel.setForeground(new Color(0, 150, 0));
             updateGameStatus();
-
-            // Check for match win
-            if (playerWins >= winsNeeded) {
-                inGame = false;
-            }
-        } else if (message.contains("***You lost this round!")) {
-            opponentWins++;
+        } else if (outcome < 0) {
             resultLabel.setText("You lost!");
             resultLabel.setForeground(new Color(200, 0, 0));
             updateGameStatus();
-
-            // Check for match loss
-            if (opponentWins >= winsNeeded) {
-                inGame = false;
-            }
-        } else if (message.contains("***It's a draw for this round!")) {
+        } else {
             resultLabel.setText("It's a draw!");
             resultLabel.setForeground(Color.BLUE);
         }
 
-        // Handle game end
-        else if (message.contains("***Congratulations! You've won the match!")) {
+        // Check for match win or loss
+        if (playerWins >= winsNeeded || opponentWins >= winsNeeded) {
             inGame = false;
+        }
+    }
 
-            // Display coffee bet win message if coffee bet mode was active
-            if (coffeeBetMode) {
-                JOptionPane.showMessageDialog(this,
-                        "Congratulations! You've won the match AND a coffee! " + opponentName + " owes you a coffee! ☕",
-                        "Coffee Bet Win!", JOptionPane.INFORMATION_MESSAGE);
-                coffeeBetMode = false; // Reset for next game
-                coffeeBetCheckbox.setSelected(false);
-            }
+    private void onMatchWon() {
+        inGame = false;
 
-            updateGameStatus();
-        } else if (message.contains("***You've lost the match.")) {
-            inGame = false;
+        // Display coffee bet win message if coffee bet mode was active
+        if (coffeeBetMode) {
+            JOptionPane.showMessageDialog(this,
+                    "Congratulations! You've won the match AND a coffee! " + opponentName + " owes you a coffee! ☕",
+                    "Coffee Bet Win!", JOptionPane.INFORMATION_MESSAGE);
+            coffeeBetMode = false; // Reset for next game
+            coffeeBetCheckbox.setSelected(false);
+        }
 
-            // Display coffee bet loss message if coffee bet mode was active
-            if (coffeeBetMode) {
-                JOptionPane.showMessageDialog(this,
-                        "You've lost the match. Time to buy " + opponentName + " a coffee! ☕",
-                        "Coffee Bet Loss", JOptionPane.INFORMATION_MESSAGE);
-                coffeeBetMode = false; // Reset for next game
-                coffeeBetCheckbox.setSelected(false);
-            }
+        updateGameStatus();
+    }
 
-            updateGameStatus();
-        }
+    private void onMatchLost() {
+        inGame = false;
 
-        // Handle opponent disconnect
-        else if (message.contains("***Your opponent has disconnected***")) {
-            inGame = false;
-            opponentName = null;
-            updateGameStatus();
+        // Display coffee bet loss message if coffee bet mode was active
+        if (coffeeBetMode) {
+            JOptionPane.showMessageDialog(this,
+                    "You've lost the match. Time to buy " + opponentName + " a coffee! ☕",
+                    "Coffee Bet Loss", JOptionPane.INFORMATION_MESSAGE);
+            coffeeBetMode = false; // Reset for next game
+            coffeeBetCheckbox.setSelected(false);
         }
 
+        updateGameStatus();
+    }
+
+    private void onOpponentDisconnected() {
+        inGame = false;
+        opponentName = null;
+        updateGameStatus();
     }
 
     private void updateMoveDisplay(String playerMove, String opponentMove) {
@@ -801,9 +960,6 @@ public class RPSClientGUI extends JFrame {
             if (out != null) {
                 out.close();
             }
-            if (in != null) {
-                in.close();
-            }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
             }
@@ -0,0 +1,240 @@
+package src.client;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// Reads what the server sends. Starts with text lines; once the server has
+// acknowledged 'protocol binary' it switches to binary frames:
+//   varint length | u8 opcode | payload   (length counts opcode + payload)
+// A string inside a payload is a varint byte count followed by UTF-8. Must
+// match src.server.BinaryProtocol.
+class ServerMessageReader {
+    static final String BINARY_REQUEST = "protocol binary";
+    static final String BINARY_ACK = "***Binary protocol enabled***";
+    static final String PING = "***ping***"; // Answer with PONG, or the server drops the connection
+    static final String PONG = "pong";
+
+    static final int TEXT = 0x01;
+    static final int MATCH_START = 0x02;
+    static final int ROUND = 0x03;
+    static final int NEXT_ROUND = 0x04;
+    static final int WAITING_FOR_MOVE = 0x05;
+    static final int MATCH_END = 0x06;
+    static final int SCORE = 0x07;
+    static final int INVITATION = 0x08;
+    static final int PRESENCE = 0x09;
+
+    // PRESENCE changes
+    static final int JOINED = 1;
+    static final int LEFT = 2;
+    static final int IN_GAME = 3;
+    static final int IN_LOBBY = 4;
+
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    // One server message. Only the fields of its type are set.
+    static final class Message {
+        final int type;
+        String text; // TEXT
+        String nickname; // MATCH_START opponent, INVITATION inviter, PRESENCE player
+        char move; // ROUND, '-' if that player ran out of time
+        char opponentMove; // ROUND
+        int outcome; // ROUND and MATCH_END: 1 won, 0 draw or opponent left, -1 lost
+        int wins; // ROUND
+        int opponentWins; // ROUND
+        int winsNeeded; // ROUND, MATCH_START
+        int score; // SCORE
+        boolean overall; // SCORE after a match
+        boolean coffeeBet; // MATCH_START, INVITATION
+        boolean queued; // INVITATION
+        int change; // PRESENCE: JOINED, LEFT, IN_GAME or IN_LOBBY
+
+        Message(int type) {
+            this.type = type;
+        }
+
+        // A keepalive from the server, not shown to the player
+        boolean isPing() {
+            return type == TEXT && PING.equals(text);
+        }
+
+        // The same lines the text protocol sends for this message
+        String toText() {
+            switch (type) {
+                case TEXT:
+                    return text;
+                case MATCH_START:
+                    return (coffeeBet ? "***Coffee Bet Mode enabled!***\n" : "")
+                            + "***You are now playing with " + nickname + "***\n"
+                            + "***First to win " + winsNeeded + " rounds wins the match!***\n"
+                            + "***Choose your move: R (Rock), P (Paper), or S (Scissors)***";
+                case ROUND:
+                    return "***Your move: " + move + ", Opponent's move: " + opponentMove + "***\n"
+                            + (outcome > 0 ? "***You won this round! (Round wins: " + wins + "/" + winsNeeded + ")***"
+                                    : outcome < 0
+                                            ? "***You lost this round! (Round wins: " + wins + "/" + winsNeeded + ")***"
+                                            : "***It's a draw for this round!***");
+                case NEXT_ROUND:
+                    return "***Next round! Choose your move: R (Rock), P (Paper), or S (Scissors)***";
+                case WAITING_FOR_MOVE:
+                    return "***Waiting for opponent's move***";
+                case MATCH_END:
+                    return outcome > 0 ? "***Congratulations! You've won the match!***"
+                            : outcome < 0 ? "***You've lost the match. Better luck next time!***"
+                                    : "***Your opponent has disconnected***";
+                case SCORE:
+                    return (overall ? "***Your overall score is " : "***Your score is ") + score + "***";
+                case INVITATION:
+                    if (coffeeBet) {
+                        return "***Player " + nickname + " wants to play a Coffee Bet game (loser buys coffee)***\n"
+                                + "***Do you accept the Coffee Bet challenge? (y/n)***";
+                    }
+                    return "***You have " + (queued ? "a queued invitation" : "an invitation") + " from " + nickname
+                            + ", play game? (y/n)***";
+                case PRESENCE:
+                    return (change == JOINED ? "***Player joined: "
+                            : change == LEFT ? "***Player left: "
+                                    : change == IN_GAME ? "***Player in game: " : "***Player in lobby: ")
+                            + nickname + "***";
+                default:
+                    return "***Unknown message type " + type + "***";
+            }
+        }
+    }
+
+    private final InputStream in;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private boolean binary;
+
+    ServerMessageReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    // Next message, or null once the server has closed the connection
+    Message read() throws IOException {
+        if (binary) {
+            return readFrame();
+        }
+
+        String text = readLine();
+        if (text == null) {
+            return null;
+        }
+        if (text.equals(BINARY_ACK)) {
+            binary = true;
+        }
+        Message message = new Message(TEXT);
+        message.text = text;
+        return message;
+    }
+
+    // Reads bytes rather than using a Reader, so nothing past the line is
+    // buffered when the stream switches to frames. The server writes UTF-8
+    // whatever the platform charset is here.
+    private String readLine() throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : new String(line.toByteArray(), StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private Message readFrame() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = readVarint(first);
+        if (length < 1 || length > MAX_FRAME) {
+            throw new IOException("Bad frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        new DataInputStream(in).readFully(frame);
+
+        Message message = new Message(frame[0] & 0xFF);
+        int[] pos = { 1 };
+        switch (message.type) {
+            case TEXT:
+                message.text = new String(frame, 1, length - 1, StandardCharsets.UTF_8);
+                break;
+            case MATCH_START:
+                message.coffeeBet = (frame[1] & 1) != 0;
+                message.winsNeeded = frame[2] & 0xFF;
+                pos[0] = 3;
+                message.nickname = readString(frame, pos);
+                break;
+            case ROUND:
+                message.move = (char) frame[1];
+                message.opponentMove = (char) frame[2];
+                message.outcome = frame[3];
+                message.wins = frame[4] & 0xFF;
+                message.opponentWins = frame[5] & 0xFF;
+                message.winsNeeded = frame[6] & 0xFF;
+                break;
+            case MATCH_END:
+                message.outcome = frame[1];
+                break;
+            case SCORE:
+                message.overall = (frame[1] & 1) != 0;
+                message.score = (frame[2] & 0xFF) << 24 | (frame[3] & 0xFF) << 16 | (frame[4] & 0xFF) << 8
+                        | (frame[5] & 0xFF);
+                break;
+            case INVITATION:
+                message.coffeeBet = (frame[1] & 1) != 0;
+                message.queued = (frame[1] & 2) != 0;
+                pos[0] = 2;
+                message.nickname = readString(frame, pos);
+                break;
+            case PRESENCE:
+                message.change = frame[1];
+                pos[0] = 2;
+                message.nickname = readString(frame, pos);
+                break;
+            default:
+                // NEXT_ROUND, WAITING_FOR_MOVE and unknown types carry nothing we read
+                break;
+        }
+        return message;
+    }
+
+    private int readVarint(int first) throws IOException {
+        int value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            if (shift > 28) {
+                throw new IOException("Bad frame length");
+            }
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    private static String readString(byte[] frame, int[] pos) {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = frame[pos[0]++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        String value = new String(frame, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+package src.server;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Decides on the accept thread whether a new connection is served at all,
+// before a handler, thread or buffer exists for it: at most maxConnections
+// open at once, at most maxPerAddress from one IP address, and new
+// connections at no more than the accept rate (a token bucket holding one
+// second's worth, so short bursts get through). A rejected client is sent
+// one line saying why and closed, which costs far less than serving it.
+// Rejections are only counted, not logged, since they come in floods.
+class AdmissionControl {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int maxConnections; // 0 = no limit
+    private final int maxPerAddress; // 0 = no limit
+    private final Metrics.Counter rejected;
+
+    // Guarded by lock
+    private int open;
+    private final Map<InetAddress, Integer> openPerAddress = new HashMap<>();
+    private final TokenBucket accepts; // Null = no limit
+
+    AdmissionControl(ServerConfig config, Metrics metrics) {
+        this.maxConnections = config.getMaxConnections();
+        this.maxPerAddress = config.getMaxConnectionsPerAddress();
+        int acceptsPerSecond = config.getMaxAcceptsPerSecond();
+        this.accepts = acceptsPerSecond > 0 ? new TokenBucket(acceptsPerSecond, acceptsPerSecond) : null;
+        this.rejected = metrics.counter("connectionsRejected");
+    }
+
+    // Null if the connection is admitted, and counted until release();
+    // otherwise the message to reject it with
+    MessageCatalog.Constant admit(InetAddress address) {
+        lock.lock();
+        try {
+            MessageCatalog.Constant rejection = check(address);
+            if (rejection != null) {
+                rejected.increment();
+                return rejection;
+            }
+            open++;
+            if (maxPerAddress > 0) {
+                openPerAddress.merge(address, 1, Integer::sum);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(InetAddress address) {
+        lock.lock();
+        try {
+            open--;
+            if (maxPerAddress > 0) {
+                openPerAddress.computeIfPresent(address, (k, count) -> count == 1 ? null : count - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds lock. Only takes a token once the other limits have passed
+    private MessageCatalog.Constant check(InetAddress address) {
+        if (maxConnections > 0 && open >= maxConnections) {
+            return MessageCatalog.SERVER_FULL;
+        }
+        if (maxPerAddress > 0 && openPerAddress.getOrDefault(address, 0) >= maxPerAddress) {
+            return MessageCatalog.TOO_MANY_FROM_ADDRESS;
+        }
+        if (accepts != null && !accepts.tryTake(System.nanoTime())) {
+            return MessageCatalog.SERVER_BUSY;
+        }
+        return null;
+    }
+}
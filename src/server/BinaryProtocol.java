@@ -0,0 +1,113 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Frames for clients that opted in with 'protocol binary' before choosing a
+// nickname. Commands from the client stay text lines; everything the server
+// sends after the "***Binary protocol enabled***" line is a frame:
+//   varint length | u8 opcode | payload   (length counts opcode + payload)
+// A string inside a payload is a varint byte count followed by UTF-8. The
+// client-side reader lives in src.client.ServerMessageReader.
+final class BinaryProtocol {
+    static final String REQUEST = "protocol binary";
+    static final String ACK = "***Binary protocol enabled***";
+
+    static final byte TEXT = 0x01; // UTF-8 text line, rest of the frame
+    static final byte MATCH_START = 0x02; // u8 flags (1 = coffee bet), u8 wins needed, string opponent
+    static final byte ROUND = 0x03; // u8 move, u8 opponent move, i8 outcome, u8 wins, u8 opponent wins, u8 wins needed
+    static final byte NO_MOVE = '-'; // In a ROUND frame: that player ran out of time
+    static final byte NEXT_ROUND = 0x04; // no payload
+    static final byte WAITING_FOR_MOVE = 0x05; // no payload
+    static final byte MATCH_END = 0x06; // i8 outcome, 0 if the opponent disconnected
+    static final byte SCORE = 0x07; // u8 flags (1 = overall score after a match), i32 score
+    static final byte INVITATION = 0x08; // u8 flags (1 = coffee bet, 2 = was queued), string inviter
+    static final byte PRESENCE = 0x09; // u8 change (1 joined, 2 left, 3 in game, 4 in lobby), string nickname
+
+    // Payload-free frames are the same every time
+    static final ByteBuffer NEXT_ROUND_FRAME = MessageCatalog.shared(new byte[] { 1, NEXT_ROUND });
+    static final ByteBuffer WAITING_FOR_MOVE_FRAME = MessageCatalog.shared(new byte[] { 1, WAITING_FOR_MOVE });
+
+    // Longest varint a frame length or string length needs
+    static final int MAX_VARINT_LENGTH = 5;
+
+    private BinaryProtocol() {
+    }
+
+    static byte[] text(String message) {
+        byte[] utf8 = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(utf8.length + 1 + MAX_VARINT_LENGTH);
+        putVarint(frame, utf8.length + 1);
+        frame.put(TEXT).put(utf8);
+        return Arrays.copyOf(frame.array(), frame.position());
+    }
+
+    // The put methods below append one whole frame to out, which must have room
+    // for it; the size is given next to each
+
+    // 3 + varint + nickname bytes
+    static void putMatchStart(ByteBuffer out, byte[] opponentNickname, int winsNeeded, boolean coffeeBet) {
+        putVarint(out, 3 + varintLength(opponentNickname.length) + opponentNickname.length);
+        out.put(MATCH_START).put((byte) (coffeeBet ? 1 : 0)).put((byte) winsNeeded);
+        putString(out, opponentNickname);
+    }
+
+    // 8 bytes. outcome: 1 won the round, 0 draw, -1 lost
+    static void putRound(ByteBuffer out, byte move, byte opponentMove, int outcome, int wins, int opponentWins,
+            int winsNeeded) {
+        out.put((byte) 7).put(ROUND).put(symbol(move)).put(symbol(opponentMove))
+                .put((byte) outcome).put((byte) wins).put((byte) opponentWins).put((byte) winsNeeded);
+    }
+
+    private static byte symbol(byte move) {
+        return move == Moves.NONE ? NO_MOVE : Moves.symbol(move);
+    }
+
+    // 3 bytes. outcome: 1 won the match, -1 lost, 0 opponent disconnected
+    static void putMatchEnd(ByteBuffer out, int outcome) {
+        out.put((byte) 2).put(MATCH_END).put((byte) outcome);
+    }
+
+    // 7 bytes
+    static void putScore(ByteBuffer out, int score, boolean overall) {
+        out.put((byte) 6).put(SCORE).put((byte) (overall ? 1 : 0)).putInt(score);
+    }
+
+    // 2 + varint + nickname bytes
+    static void putInvitation(ByteBuffer out, byte[] inviterNickname, boolean coffeeBet, boolean queued) {
+        putVarint(out, 2 + varintLength(inviterNickname.length) + inviterNickname.length);
+        out.put(INVITATION).put((byte) ((coffeeBet ? 1 : 0) | (queued ? 2 : 0)));
+        putString(out, inviterNickname);
+    }
+
+    // 2 + varint + nickname bytes
+    static void putPresence(ByteBuffer out, byte change, byte[] nickname) {
+        putVarint(out, 2 + varintLength(nickname.length) + nickname.length);
+        out.put(PRESENCE).put(change);
+        putString(out, nickname);
+    }
+
+    private static void putString(ByteBuffer out, byte[] utf8) {
+        putVarint(out, utf8.length);
+        out.put(utf8);
+    }
+
+    // Unsigned LEB128: 7 bits per byte, high bit set on all but the last
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
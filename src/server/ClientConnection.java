@@ -0,0 +1,34 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Outbound side of a client connection, independent of the transport that
+// carries it (blocking socket thread or NIO event loop)
+interface ClientConnection {
+    // Queue or write bytes that are already encoded: whole text lines with
+    // their terminator, or whole binary frames. Reads from position to limit
+    // without moving either and keeps no reference, so shared constants and
+    // reused scratch buffers can both be passed in. The server only passes
+    // heap buffers; implementations read their backing array directly.
+    void send(ByteBuffer encoded);
+
+    // Queue or write one protocol line; the line terminator is added here
+    default void send(String message) {
+        send(ByteBuffer.wrap((message + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // Queue or write one binary protocol frame as is
+    default void send(byte[] frame) {
+        send(ByteBuffer.wrap(frame));
+    }
+
+    // Closes once everything already queued has been written
+    void close();
+
+    // Closes right away and discards queued output, for peers that are gone
+    // or not reading
+    default void abort() {
+        close();
+    }
+}
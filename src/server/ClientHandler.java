@@ -0,0 +1,647 @@
+package src.server;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class ClientHandler implements Runnable {
+    private static final int SCRATCH_SIZE = 256; // Fits every game event with a short nickname
+    private static final int DEFAULT_TOP = 10; // Players listed by 'top' without a count
+    private static final String PONG = "pong"; // Answer to MessageCatalog.PING
+    static final int MAX_LINE_LENGTH = 1024; // Longer lines drop the connection, on every transport
+    static final int MAX_NICKNAME_LENGTH = 32; // Characters
+
+    // Outbound messages are assembled in a buffer owned by the sending thread.
+    // Connections copy what they are given before send() returns, so the
+    // buffer is free again as soon as a message has been handed over.
+    private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(SCRATCH_SIZE);
+        }
+    };
+
+    private static final CommandDispatcher COMMANDS = playerCommands();
+
+    private final Socket clientSocket; // Only set when running on its own thread
+    private final RPSServer server;
+    private ClientConnection connection;
+    private String nickname;
+    private byte[] nicknameBytes; // UTF-8, encoded once for outbound messages
+    private boolean waitingForMatch = false;
+    private long waitTicket; // When this player joined a waiting queue
+    private long waitStartedAt; // System.nanoTime() of the same
+    private boolean connected; // onConnect() ran; connection events are on one thread
+    private boolean admin; // Unlocked with 'admin TOKEN'
+    private InetAddress admittedFrom; // Counted by AdmissionControl until onDisconnect()
+    private CommandRateLimiter limiter; // Set by onConnect(); read on the connection's reading thread
+    // System.nanoTime() stamps read by the Keepalive sweep
+    private volatile long lastReadAt; // Any line, pongs included
+    private volatile long lastCommandAt; // Pongs excluded
+    private volatile long lastPingAt;
+    private volatile long closeRequestedAt; // 0 until disconnect()
+    private volatile boolean coffeeBet = false; // Wants a Coffee Bet match
+    private volatile Match match; // Current match, set and cleared under RPSServer.gameLock
+    // Set before the nickname is registered, so no other thread has sent to
+    // this client yet when it changes
+    private volatile boolean binaryProtocol = false;
+
+    public ClientHandler(Socket socket, RPSServer server) {
+        this.clientSocket = socket;
+        this.server = server;
+    }
+
+    // The transport got this connection through RPSServer.admit()
+    void setAdmittedFrom(InetAddress address) {
+        this.admittedFrom = address;
+    }
+
+    // For transports that do their own reading and call handleLine()
+    ClientHandler(ClientConnection connection, RPSServer server) {
+        this.clientSocket = null;
+        this.connection = connection;
+        this.server = server;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public boolean isWaitingForMatch() {
+        return waitingForMatch;
+    }
+
+    public void setWaitingForMatch(boolean waiting) {
+        this.waitingForMatch = waiting;
+    }
+
+    long getWaitTicket() {
+        return waitTicket;
+    }
+
+    void setWaitTicket(long waitTicket) {
+        this.waitTicket = waitTicket;
+    }
+
+    long getWaitStartedAt() {
+        return waitStartedAt;
+    }
+
+    void setWaitStartedAt(long waitStartedAt) {
+        this.waitStartedAt = waitStartedAt;
+    }
+
+    public boolean isCoffeeBet() {
+        return coffeeBet;
+    }
+
+    public void setCoffeeBet(boolean coffeeBet) {
+        this.coffeeBet = coffeeBet;
+    }
+
+    Match getMatch() {
+        return match;
+    }
+
+    void setMatch(Match match) {
+        this.match = match;
+    }
+
+    public boolean isInMatch() {
+        return match != null;
+    }
+
+    long getLastReadAt() {
+        return lastReadAt;
+    }
+
+    long getLastCommandAt() {
+        return lastCommandAt;
+    }
+
+    long getLastPingAt() {
+        return lastPingAt;
+    }
+
+    long getCloseRequestedAt() {
+        return closeRequestedAt;
+    }
+
+    void ping(long now) {
+        lastPingAt = now;
+        send(MessageCatalog.PING);
+    }
+
+    // Says why, then closes once that has been written
+    void disconnect(MessageCatalog.Constant reason) {
+        if (closeRequestedAt != 0) {
+            return;
+        }
+        closeRequestedAt = Math.max(1, System.nanoTime()); // 0 means not closing
+        send(reason);
+        connection.close();
+    }
+
+    void abortConnection() {
+        connection.abort();
+    }
+
+    public void sendMessage(String message) {
+        if (binaryProtocol) {
+            connection.send(BinaryProtocol.text(message));
+        } else {
+            connection.send(message);
+        }
+    }
+
+    void send(MessageCatalog.Constant message) {
+        send(message.line, message.frame);
+    }
+
+    // The same message encoded for each protocol
+    void send(ByteBuffer line, ByteBuffer frame) {
+        connection.send(binaryProtocol ? frame : line);
+    }
+
+    // Game events below go out as compact frames to binary protocol clients
+    // and as the usual text lines to everyone else. Either way they are
+    // assembled in the scratch buffer, so nothing is allocated per send.
+
+    void sendMatchStart(ClientHandler opponent, int winsNeeded, boolean coffeeBet) {
+        byte[] opponentNickname = opponent.nicknameBytes;
+        ByteBuffer out = beginMessage(opponentNickname.length + 256);
+        if (binaryProtocol) {
+            BinaryProtocol.putMatchStart(out, opponentNickname, winsNeeded, coffeeBet);
+        } else {
+            if (coffeeBet) {
+                out.put(MessageCatalog.COFFEE_BET_ENABLED.lineBytes);
+            }
+            out.put(MessageCatalog.PLAYING_WITH).put(opponentNickname).put(MessageCatalog.LINE_END);
+            out.put(MessageCatalog.FIRST_TO_WIN);
+            MessageCatalog.putInt(out, winsNeeded);
+            out.put(MessageCatalog.ROUNDS_WIN_MATCH);
+            out.put(MessageCatalog.CHOOSE_MOVE.lineBytes);
+        }
+        endMessage(out);
+    }
+
+    // outcome: 1 won the round, 0 draw, -1 lost
+    void sendRound(byte move, byte opponentMove, int outcome, int wins, int opponentWins, int winsNeeded) {
+        ByteBuffer out = beginMessage(256);
+        if (binaryProtocol) {
+            BinaryProtocol.putRound(out, move, opponentMove, outcome, wins, opponentWins, winsNeeded);
+        } else {
+            out.put(MessageCatalog.YOUR_MOVE).put(Moves.symbol(move)).put(MessageCatalog.OPPONENTS_MOVE)
+                    .put(Moves.symbol(opponentMove)).put(MessageCatalog.LINE_END);
+            if (outcome == 0) {
+                out.put(MessageCatalog.ROUND_DRAW.lineBytes);
+            } else {
+                out.put(outcome > 0 ? MessageCatalog.ROUND_WON : MessageCatalog.ROUND_LOST);
+                MessageCatalog.putInt(out, wins);
+                out.put((byte) '/');
+                MessageCatalog.putInt(out, winsNeeded);
+                out.put(MessageCatalog.WINS_END);
+            }
+        }
+        endMessage(out);
+    }
+
+    // A round decided because one player did not move in time; the missing
+    // move is Moves.NONE. Binary clients get the reason, then the usual
+    // ROUND frame, so their tally stays in step.
+    void sendForfeit(byte move, byte opponentMove, boolean won, int wins, int opponentWins, int winsNeeded) {
+        MessageCatalog.Constant reason = won ? MessageCatalog.OPPONENT_TIMED_OUT : MessageCatalog.MOVE_TIMED_OUT;
+        if (binaryProtocol) {
+            send(reason);
+            ByteBuffer out = beginMessage(16);
+            BinaryProtocol.putRound(out, move, opponentMove, won ? 1 : -1, wins, opponentWins, winsNeeded);
+            endMessage(out);
+            return;
+        }
+        ByteBuffer out = beginMessage(256);
+        out.put(reason.lineBytes);
+        out.put(won ? MessageCatalog.ROUND_WON : MessageCatalog.ROUND_LOST);
+        MessageCatalog.putInt(out, wins);
+        out.put((byte) '/');
+        MessageCatalog.putInt(out, winsNeeded);
+        out.put(MessageCatalog.WINS_END);
+        endMessage(out);
+    }
+
+    // Binary clients also get a MATCH_END, which is how they leave a match
+    void sendMatchCalledOff() {
+        send(MessageCatalog.MATCH_CALLED_OFF);
+        if (binaryProtocol) {
+            sendMatchEnd(0);
+        }
+    }
+
+    void sendNextRound() {
+        connection.send(binaryProtocol ? BinaryProtocol.NEXT_ROUND_FRAME : MessageCatalog.NEXT_ROUND.line);
+    }
+
+    void sendWaitingForMove() {
+        connection.send(binaryProtocol ? BinaryProtocol.WAITING_FOR_MOVE_FRAME : MessageCatalog.WAITING_FOR_MOVE.line);
+    }
+
+    // outcome: 1 won the match, -1 lost, 0 opponent disconnected
+    void sendMatchEnd(int outcome) {
+        if (!binaryProtocol) {
+            send(outcome > 0 ? MessageCatalog.MATCH_WON
+                    : outcome < 0 ? MessageCatalog.MATCH_LOST : MessageCatalog.OPPONENT_DISCONNECTED);
+            return;
+        }
+        ByteBuffer out = beginMessage(16);
+        BinaryProtocol.putMatchEnd(out, outcome);
+        endMessage(out);
+    }
+
+    // overall: sent after a match rather than in reply to 'score'
+    void sendScore(int score, boolean overall) {
+        ByteBuffer out = beginMessage(64);
+        if (binaryProtocol) {
+            BinaryProtocol.putScore(out, score, overall);
+        } else {
+            out.put(overall ? MessageCatalog.YOUR_OVERALL_SCORE : MessageCatalog.YOUR_SCORE);
+            MessageCatalog.putInt(out, score);
+            out.put(MessageCatalog.LINE_END);
+        }
+        endMessage(out);
+    }
+
+    void sendInvitation(ClientHandler inviter, boolean coffeeBet, boolean queued) {
+        byte[] inviterNickname = inviter.nicknameBytes;
+        ByteBuffer out = beginMessage(inviterNickname.length + 256);
+        if (binaryProtocol) {
+            BinaryProtocol.putInvitation(out, inviterNickname, coffeeBet, queued);
+        } else if (coffeeBet) {
+            out.put(MessageCatalog.COFFEE_BET_FROM).put(inviterNickname).put(MessageCatalog.COFFEE_BET_END);
+        } else {
+            out.put(queued ? MessageCatalog.QUEUED_INVITATION_FROM : MessageCatalog.INVITATION_FROM)
+                    .put(inviterNickname).put(MessageCatalog.INVITATION_END);
+        }
+        endMessage(out);
+    }
+
+    // Grows this thread's scratch buffer for long nicknames; after that it is
+    // reused for every message
+    private static ByteBuffer beginMessage(int capacity) {
+        ByteBuffer out = SCRATCH.get();
+        if (out.capacity() < capacity) {
+            out = ByteBuffer.allocate(capacity);
+            SCRATCH.set(out);
+        }
+        out.clear();
+        return out;
+    }
+
+    private void endMessage(ByteBuffer out) {
+        out.flip();
+        connection.send(out);
+    }
+
+    @Override
+    public void run() {
+        BufferedReader in = null;
+        try {
+            connection = new SocketConnection(clientSocket, server.newOutboundBuffer(), server.getWriters());
+            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+
+            onConnect();
+
+            String inputLine;
+            while ((inputLine = readLine(in)) != null) {
+                handleLine(inputLine);
+            }
+        } catch (IOException e) {
+            System.out.println("Error handling client: " + e.getMessage());
+        } finally {
+            onDisconnect();
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (connection != null) {
+                connection.abort();
+            }
+        }
+    }
+
+    // BufferedReader.readLine() with a length limit, so a client cannot make
+    // the server buffer an endless line
+    private static String readLine(BufferedReader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("line too long");
+            }
+            line.append((char) c);
+        }
+        if (c == -1 && line.length() == 0) {
+            return null;
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            line.setLength(end - 1);
+        }
+        return line.toString();
+    }
+
+    void onConnect() {
+        long now = System.nanoTime();
+        lastReadAt = now;
+        lastCommandAt = now;
+        lastPingAt = now;
+        limiter = server.newCommandRateLimiter();
+        connected = true;
+        server.connectionOpened(this);
+
+        // Request nickname
+        send(MessageCatalog.CHOOSE_NICKNAME);
+    }
+
+    void onDisconnect() {
+        if (nickname != null) {
+            server.removeClient(nickname);
+            nickname = null;
+        }
+        if (connected) {
+            connected = false;
+            server.connectionClosed(this);
+        }
+        if (admittedFrom != null) {
+            server.releaseAdmission(admittedFrom);
+            admittedFrom = null;
+        }
+    }
+
+    void handleLine(String inputLine) {
+        long now = System.nanoTime();
+        lastReadAt = now;
+        if (closeRequestedAt != 0) {
+            return; // On its way out; the rest of its input is ignored
+        }
+        if (limiter != null && !withinBudget(limiter.command(now))) {
+            return;
+        }
+        if (nickname != null && inputLine.equalsIgnoreCase(PONG)) {
+            return; // Keeps the connection alive, but is not activity
+        }
+        lastCommandAt = now;
+
+        // Register client
+        if (nickname == null) {
+            if (inputLine.equalsIgnoreCase(BinaryProtocol.REQUEST)) {
+                // The acknowledgement is the last text line this client gets
+                sendMessage(BinaryProtocol.ACK);
+                binaryProtocol = true;
+                return;
+            }
+            if (inputLine.length() > MAX_NICKNAME_LENGTH || !server.canStoreScore(inputLine)) {
+                sendMessage("***Nickname too long (at most " + MAX_NICKNAME_LENGTH + " characters). Choose another one***");
+                return;
+            }
+            if (!server.registerClient(inputLine, this)) {
+                sendMessage("***Nickname already taken. Choose another one***");
+                return;
+            }
+            nickname = inputLine;
+            nicknameBytes = MessageCatalog.bytes(nickname);
+
+            sendMessage("***Welcome " + nickname
+                    + "! Type 'play' to start a game, 'score' to see your score, or 'players' to list online players***");
+            sendMessage("***When in a game, use: R (Rock), P (Paper), or S (Scissors) to make your move***");
+            sendMessage("***You can also invite a specific player with 'play NICKNAME'***");
+            return;
+        }
+
+        if (!COMMANDS.dispatch(this, inputLine)) {
+            sendMessage(
+                    "***Invalid command. Available commands: play, play coffee, play NICKNAME, play NICKNAME coffee, y/n [NICKNAME] (for invitations), score, top [N], rank, players, watch, unwatch, R, P, S***");
+        }
+    }
+
+    // False if the line is to be dropped; says so the first time, and
+    // disconnects a client that will not stop
+    private boolean withinBudget(CommandRateLimiter.Verdict verdict) {
+        switch (verdict) {
+            case ALLOW:
+                return true;
+            case THROTTLE:
+                send(MessageCatalog.SLOW_DOWN);
+                return false;
+            case DROP:
+                return false;
+            default:
+                System.out.println("Dropping client: flooding commands");
+                disconnect(MessageCatalog.COMMAND_FLOOD);
+                return false;
+        }
+    }
+
+    // Commands of registered players; to add one, register its name here.
+    // Ones that take gameLock or send long replies are wrapped in expensive().
+    private static CommandDispatcher playerCommands() {
+        return new CommandDispatcher()
+                .register("play", true, expensive(ClientHandler::play))
+                // Answer the oldest invitation or coffee bet challenge, or the
+                // one from a specific player (y NICKNAME / n NICKNAME)
+                .register("y", true, expensive(
+                        (client, inviter) -> client.server.handleInvitationResponse(client, true, inviter)))
+                .register("yes", false, expensive(
+                        (client, argument) -> client.server.handleInvitationResponse(client, true)))
+                .register("n", true, expensive(
+                        (client, inviter) -> client.server.handleInvitationResponse(client, false, inviter)))
+                .register("no", false, expensive(
+                        (client, argument) -> client.server.handleInvitationResponse(client, false)))
+                .register("score", false,
+                        (client, argument) -> client.sendScore(client.server.getScore(client.nickname), false))
+                .register("top", true, expensive(ClientHandler::top))
+                .register("rank", false, ClientHandler::rank)
+                .register("players", false, expensive(
+                        (client, argument) -> client.sendMessage("***Players online: " + client.server.getPlayers() + "***")))
+                // Live roster: the current players, then every join, leave and match start or end
+                .register("watch", false, expensive((client, argument) -> client.server.getPresence().watch(client)))
+                .register("unwatch", false, (client, argument) -> {
+                    client.server.getPresence().unwatch(client);
+                    client.sendMessage(Presence.NOT_WATCHING);
+                })
+                // Admin commands, unlocked with the server's --admin-token
+                .register("admin", true, expensive(ClientHandler::admin))
+                .register("stats", false, expensive(ClientHandler::stats))
+                .register("R", false, (client, argument) -> client.server.handleMove(client, Moves.ROCK))
+                .register("P", false, (client, argument) -> client.server.handleMove(client, Moves.PAPER))
+                .register("S", false, (client, argument) -> client.server.handleMove(client, Moves.SCISSORS));
+    }
+
+    // Also takes from the client's smaller budget for expensive commands
+    private static CommandDispatcher.Handler expensive(CommandDispatcher.Handler handler) {
+        return (client, argument) -> {
+            if (client.limiter == null || client.withinBudget(client.limiter.expensiveCommand(System.nanoTime()))) {
+                handler.handle(client, argument);
+            }
+        };
+    }
+
+    // top [N]: the best N players, from the leaderboard's cached snapshot
+    private static void top(ClientHandler client, String argument) {
+        int count = DEFAULT_TOP;
+        if (argument != null) {
+            try {
+                count = Integer.parseInt(argument);
+            } catch (NumberFormatException e) {
+                count = 0;
+            }
+            if (count < 1 || count > Leaderboard.MAX_TOP) {
+                client.sendMessage("***Usage: top [N], with N from 1 to " + Leaderboard.MAX_TOP + "***");
+                return;
+            }
+        }
+
+        Leaderboard.Snapshot board = client.server.getLeaderboard().snapshot();
+        int shown = Math.min(count, board.top.size());
+        client.sendMessage("***Top " + shown + " of " + board.players + " players***");
+        for (int i = 0; i < shown; i++) {
+            Leaderboard.Entry entry = board.top.get(i);
+            client.sendMessage("***" + entry.rank + ". " + entry.nickname + " - " + entry.score + "***");
+        }
+    }
+
+    private static void rank(ClientHandler client, String argument) {
+        Leaderboard leaderboard = client.server.getLeaderboard();
+        int score = client.server.getScore(client.nickname);
+        client.sendMessage("***Your rank is " + leaderboard.rank(score) + " of " + leaderboard.size()
+                + " players (score " + score + ")***");
+    }
+
+    private static void admin(ClientHandler client, String token) {
+        client.admin = client.server.isAdminToken(token);
+        client.sendMessage(client.admin ? "***Admin commands unlocked***" : "***Wrong admin token***");
+    }
+
+    // One line per counter, gauge and latency histogram
+    private static void stats(ClientHandler client, String argument) {
+        if (!client.admin) {
+            client.sendMessage("***'stats' is an admin command. Unlock it with 'admin TOKEN'***");
+            return;
+        }
+        client.sendMessage("***Server stats***");
+        for (String line : client.server.getMetrics().report()) {
+            client.sendMessage("***" + line + "***");
+        }
+    }
+
+    // play, play coffee, play NICKNAME or play NICKNAME coffee
+    private static void play(ClientHandler client, String argument) {
+        if (argument == null) {
+            client.server.playGame(client);
+        } else if (argument.equalsIgnoreCase("coffee")) {
+            client.server.playCoffeeBetGame(client);
+        } else if (CommandDispatcher.endsWithIgnoreCase(argument, " coffee")) {
+            // Enable coffee bet mode, then invite
+            String targetNickname = argument.substring(0, argument.lastIndexOf(' ')).trim();
+            client.server.playCoffeeBetGame(client);
+            client.server.invitePlayer(client, targetNickname);
+        } else {
+            client.server.invitePlayer(client, argument);
+        }
+    }
+
+    // Blocking socket output used by the thread-per-client transport. Senders
+    // only queue, then hand the connection to a shared writer pool if it is
+    // not there already; the writer does the blocking writes, one per batch
+    // of messages queued while the previous write was going on, and leaves
+    // once nothing is queued. A writer thread is only tied up while there is
+    // output to write, not for the life of the connection.
+    private static class SocketConnection implements ClientConnection {
+        private final Socket socket;
+        private final OutputStream out;
+        private final OutboundBuffer outbound;
+        private final Executor writers;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+        SocketConnection(Socket socket, OutboundBuffer outbound, Executor writers) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            this.outbound = outbound;
+            this.writers = writers;
+        }
+
+        @Override
+        public void send(ByteBuffer encoded) {
+            if (!outbound.offer(encoded)) {
+                System.out.println("Dropping client: not reading its messages");
+                abort(); // The reading side notices and cleans up
+                return;
+            }
+            scheduleWrite();
+        }
+
+        private void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this::write);
+                } catch (RejectedExecutionException e) {
+                    abort(); // Server is stopping
+                }
+            }
+        }
+
+        // Writer pool thread
+        private void write() {
+            try {
+                while (true) {
+                    ByteBuffer batch = outbound.take();
+                    if (batch != null) {
+                        out.write(batch.array(), batch.arrayOffset(), batch.limit());
+                        out.flush();
+                        outbound.written(batch);
+                        continue;
+                    }
+                    if (outbound.isClosed()) {
+                        closeSocket(); // Ends a close(): the reading side notices and cleans up
+                        return;
+                    }
+                    // Anything queued after the flag is cleared schedules its own write
+                    writeScheduled.set(false);
+                    if (!outbound.needsWrite() || !writeScheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // The reading side notices the broken connection and cleans up
+                outbound.close();
+                closeSocket();
+            }
+        }
+
+        @Override
+        public void close() {
+            outbound.closeWhenWritten();
+            scheduleWrite();
+        }
+
+        @Override
+        public void abort() {
+            outbound.close();
+            closeSocket();
+        }
+
+        private void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package src.server;
+
+// Maps the command lines of registered players to their handlers. The
+// command name is the line up to the first space, matched ignoring case in
+// a table built once; the rest of the line, trimmed, is the argument. A
+// line is looked at once and nothing is allocated except the argument.
+final class CommandDispatcher {
+    private static final int TABLE_SIZE = 64; // Power of two, well above the number of commands
+
+    interface Handler {
+        // argument is null when the line is just the command name
+        void handle(ClientHandler client, String argument);
+    }
+
+    private static final class Command {
+        final String name;
+        final boolean takesArgument;
+        final Handler handler;
+
+        Command(String name, boolean takesArgument, Handler handler) {
+            this.name = name;
+            this.takesArgument = takesArgument;
+            this.handler = handler;
+        }
+    }
+
+    private final Command[] table = new Command[TABLE_SIZE]; // Open addressing, linear probing
+    private int size;
+
+    // A line with an argument only matches a command that takes one
+    CommandDispatcher register(String name, boolean takesArgument, Handler handler) {
+        if (size >= TABLE_SIZE / 2) {
+            throw new IllegalStateException("Too many commands");
+        }
+        int slot = hash(name, name.length()) & (TABLE_SIZE - 1);
+        while (table[slot] != null) {
+            if (table[slot].name.equalsIgnoreCase(name)) {
+                throw new IllegalArgumentException("Duplicate command " + name);
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        table[slot] = new Command(name, takesArgument, handler);
+        size++;
+        return this;
+    }
+
+    // Returns false if the line is not a known command
+    boolean dispatch(ClientHandler client, String line) {
+        int nameEnd = line.indexOf(' ');
+        if (nameEnd < 0) {
+            nameEnd = line.length();
+        }
+
+        Command command = lookup(line, nameEnd);
+        if (command == null) {
+            return false;
+        }
+
+        String argument = null;
+        if (nameEnd < line.length()) {
+            argument = line.substring(nameEnd + 1).trim();
+            if (argument.isEmpty()) {
+                argument = null;
+            } else if (!command.takesArgument) {
+                return false;
+            }
+        }
+        command.handler.handle(client, argument);
+        return true;
+    }
+
+    private Command lookup(String line, int nameEnd) {
+        int slot = hash(line, nameEnd) & (TABLE_SIZE - 1);
+        Command command;
+        while ((command = table[slot]) != null) {
+            if (command.name.length() == nameEnd && line.regionMatches(true, 0, command.name, 0, nameEnd)) {
+                return command;
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return null;
+    }
+
+    // Case-insensitive, so a name and any capitalisation of it share a slot
+    private static int hash(String text, int end) {
+        int hash = 0;
+        for (int i = 0; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    // Case-insensitive endsWith, without lowercasing a copy
+    static boolean endsWithIgnoreCase(String text, String suffix) {
+        int start = text.length() - suffix.length();
+        return start >= 0 && text.regionMatches(true, start, suffix, 0, suffix.length());
+    }
+}
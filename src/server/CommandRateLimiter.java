@@ -0,0 +1,76 @@
+package src.server;
+
+// Per-connection command budgets. Every line a client sends takes a token
+// from its command bucket; commands that take gameLock or build long
+// replies (matchmaking, invitations, 'players', 'top', 'watch', admin) take
+// one from a smaller expensive bucket as well. A line over budget is
+// dropped. The client is told once when a budget runs out rather than for
+// every dropped line, and one that keeps going past its budget
+// (more dropped lines than FLOOD_DROPS, less FORGIVEN_PER_SECOND for
+// each second) is disconnected. Only used by the connection's reading
+// thread, so not synchronized.
+class CommandRateLimiter {
+    enum Verdict {
+        ALLOW,
+        THROTTLE, // Drop the line and tell the client to slow down
+        DROP, // Drop the line; already told
+        DISCONNECT // Sustained flood
+    }
+
+    private static final int BURST_SECONDS = 2; // Budget a quiet client has saved up
+    private static final int FLOOD_DROPS = 100;
+    private static final int FORGIVEN_PER_SECOND = 10;
+
+    private static final class Budget {
+        final TokenBucket bucket;
+        boolean warned; // Since the budget last allowed a line
+
+        Budget(int perSecond) {
+            this.bucket = new TokenBucket(perSecond, perSecond * BURST_SECONDS);
+        }
+    }
+
+    private final Budget commands; // Null = no limit
+    private final Budget expensiveCommands; // Null = no limit
+    private final TokenBucket forgiveness = new TokenBucket(FORGIVEN_PER_SECOND, FLOOD_DROPS);
+    private final Metrics.Counter throttled;
+    private final Metrics.Counter floods;
+
+    CommandRateLimiter(int commandsPerSecond, int expensivePerSecond, Metrics.Counter throttled,
+            Metrics.Counter floods) {
+        this.commands = commandsPerSecond > 0 ? new Budget(commandsPerSecond) : null;
+        this.expensiveCommands = expensivePerSecond > 0 ? new Budget(expensivePerSecond) : null;
+        this.throttled = throttled;
+        this.floods = floods;
+    }
+
+    // Any line
+    Verdict command(long now) {
+        return verdict(commands, now);
+    }
+
+    // On top of command(), for the expensive ones
+    Verdict expensiveCommand(long now) {
+        return verdict(expensiveCommands, now);
+    }
+
+    private Verdict verdict(Budget budget, long now) {
+        if (budget == null) {
+            return Verdict.ALLOW;
+        }
+        if (budget.bucket.tryTake(now)) {
+            budget.warned = false;
+            return Verdict.ALLOW;
+        }
+        throttled.increment();
+        if (!forgiveness.tryTake(now)) {
+            floods.increment();
+            return Verdict.DISCONNECT;
+        }
+        if (budget.warned) {
+            return Verdict.DROP;
+        }
+        budget.warned = true;
+        return Verdict.THROTTLE;
+    }
+}
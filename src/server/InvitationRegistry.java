@@ -0,0 +1,144 @@
+package src.server;
+
+import java.util.*;
+
+// Outstanding invitations and coffee bet challenges, indexed both by inviter
+// and by invitee. A player can hold any number of invitations from different
+// players; looking one up, answering it and dropping everything a
+// disconnecting player sent or received are all O(1) per invitation.
+// Removing an invitation cancels its expiry timeout, if it has one.
+// Not thread-safe: guarded by RPSServer.gameLock.
+class InvitationRegistry {
+
+    static final class Invitation {
+        final ClientHandler inviter;
+        final ClientHandler invitee;
+        final boolean coffeeBet;
+        boolean queued; // Invitee was busy; shown once their match ends
+        TimerWheel.Timeout expiry; // Set by the server, if invitations expire
+
+        Invitation(ClientHandler inviter, ClientHandler invitee, boolean coffeeBet, boolean queued) {
+            this.inviter = inviter;
+            this.invitee = invitee;
+            this.coffeeBet = coffeeBet;
+            this.queued = queued;
+        }
+    }
+
+    // Invitee -> inviter -> invitation, in the order they were received
+    private final Map<ClientHandler, LinkedHashMap<ClientHandler, Invitation>> received = new HashMap<>();
+    // Inviter -> invitee -> invitation
+    private final Map<ClientHandler, Map<ClientHandler, Invitation>> sent = new HashMap<>();
+
+    // Replaces any earlier invitation between the same two players
+    Invitation add(ClientHandler inviter, ClientHandler invitee, boolean coffeeBet, boolean queued) {
+        remove(inviter, invitee);
+        Invitation invitation = new Invitation(inviter, invitee, coffeeBet, queued);
+        received.computeIfAbsent(invitee, k -> new LinkedHashMap<>()).put(inviter, invitation);
+        sent.computeIfAbsent(inviter, k -> new HashMap<>()).put(invitee, invitation);
+        return invitation;
+    }
+
+    Invitation get(ClientHandler invitee, ClientHandler inviter) {
+        Map<ClientHandler, Invitation> invitations = received.get(invitee);
+        return invitations == null ? null : invitations.get(inviter);
+    }
+
+    // Oldest invitation the player can answer right now, or null
+    Invitation oldestPending(ClientHandler invitee) {
+        Map<ClientHandler, Invitation> invitations = received.get(invitee);
+        if (invitations != null) {
+            for (Invitation invitation : invitations.values()) {
+                if (!invitation.queued) {
+                    return invitation;
+                }
+            }
+        }
+        return null;
+    }
+
+    int countPending(ClientHandler invitee) {
+        Map<ClientHandler, Invitation> invitations = received.get(invitee);
+        if (invitations == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Invitation invitation : invitations.values()) {
+            if (!invitation.queued) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Invitations that were queued while the player was busy, oldest first
+    List<Invitation> queuedFor(ClientHandler invitee) {
+        Map<ClientHandler, Invitation> invitations = received.get(invitee);
+        if (invitations == null) {
+            return Collections.emptyList();
+        }
+        List<Invitation> queued = new ArrayList<>();
+        for (Invitation invitation : invitations.values()) {
+            if (invitation.queued) {
+                queued.add(invitation);
+            }
+        }
+        return queued;
+    }
+
+    void remove(Invitation invitation) {
+        remove(invitation.inviter, invitation.invitee);
+    }
+
+    private void remove(ClientHandler inviter, ClientHandler invitee) {
+        Map<ClientHandler, Invitation> byInviter = received.get(invitee);
+        if (byInviter != null) {
+            cancelExpiry(byInviter.remove(inviter));
+            if (byInviter.isEmpty()) {
+                received.remove(invitee);
+            }
+        }
+        Map<ClientHandler, Invitation> byInvitee = sent.get(inviter);
+        if (byInvitee != null && byInvitee.remove(invitee) != null && byInvitee.isEmpty()) {
+            sent.remove(inviter);
+        }
+    }
+
+    // Drops everything the player sent or received; returns the other side of
+    // each dropped invitation so they can be told
+    List<Invitation> removeAll(ClientHandler player) {
+        List<Invitation> dropped = new ArrayList<>();
+
+        Map<ClientHandler, Invitation> incoming = received.remove(player);
+        if (incoming != null) {
+            for (Invitation invitation : incoming.values()) {
+                Map<ClientHandler, Invitation> byInvitee = sent.get(invitation.inviter);
+                if (byInvitee != null && byInvitee.remove(player) != null && byInvitee.isEmpty()) {
+                    sent.remove(invitation.inviter);
+                }
+                cancelExpiry(invitation);
+                dropped.add(invitation);
+            }
+        }
+
+        Map<ClientHandler, Invitation> outgoing = sent.remove(player);
+        if (outgoing != null) {
+            for (Invitation invitation : outgoing.values()) {
+                Map<ClientHandler, Invitation> byInviter = received.get(invitation.invitee);
+                if (byInviter != null && byInviter.remove(player) != null && byInviter.isEmpty()) {
+                    received.remove(invitation.invitee);
+                }
+                cancelExpiry(invitation);
+                dropped.add(invitation);
+            }
+        }
+
+        return dropped;
+    }
+
+    private static void cancelExpiry(Invitation invitation) {
+        if (invitation != null && invitation.expiry != null) {
+            invitation.expiry.cancel();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package src.server;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Default score store: the whole table lives on the heap, and every change
+// is committed to a ScoreJournal by the background ScoreWriter. Players map
+// to ScoreCells in a ConcurrentHashMap, so reads take no lock and updates
+// are a CAS on the player's own cell: matches, 'score' and 'top' replies and
+// journal compaction never wait on each other.
+class JournaledScoreStore implements ScoreStore {
+    private final ReentrantLock lock = new ReentrantLock(); // Guards opened; held while loading and closing
+    private volatile ConcurrentHashMap<String, ScoreCell> scores = new ConcurrentHashMap<>();
+    private final ScoreJournal journal;
+    private final ScoreWriter writer; // Persists score changes off the game threads
+    private boolean opened;
+    private volatile boolean closed; // Changes are refused from then on
+
+    // saveTimes: how long each group commit takes
+    JournaledScoreStore(ServerConfig config, LatencyHistogram saveTimes) {
+        this.journal = new ScoreJournal(config.getScoresFile());
+        this.writer = new ScoreWriter(journal, this::size, this::copy,
+                config.getFlushIntervalMillis(), config.getFlushBatch(), saveTimes);
+    }
+
+    // Load scores from the snapshot file and replay the journal on top. Runs
+    // before the score writer starts, which then owns the journal. If loading
+    // fails the writer never starts, so the files on disk are left alone.
+    @Override
+    public void open() throws IOException {
+        lock.lock();
+        try {
+            if (opened) {
+                return;
+            }
+            Table table = new Table();
+            journal.load(table);
+            scores = table.scores;
+            opened = true;
+            System.out.println("Loaded " + scores.size() + " player scores from file.");
+        } finally {
+            lock.unlock();
+        }
+        writer.start();
+    }
+
+    @Override
+    public int get(String nickname) {
+        ScoreCell cell = scores.get(nickname);
+        return cell == null ? 0 : cell.get();
+    }
+
+    @Override
+    public void set(String nickname, int score) {
+        if (closed) {
+            refused(nickname);
+            return;
+        }
+        ScoreCell cell = cell(nickname);
+        cell.set(score);
+        if (!writer.submit(nickname, cell)) {
+            refused(nickname);
+        }
+    }
+
+    @Override
+    public int increment(String nickname) {
+        if (closed) {
+            refused(nickname);
+            return -1;
+        }
+        ScoreCell cell = cell(nickname);
+        int newScore = cell.incrementAndGet();
+        if (!writer.submit(nickname, cell)) {
+            refused(nickname);
+            return -1;
+        }
+        return newScore;
+    }
+
+    @Override
+    public boolean addIfAbsent(String nickname) {
+        if (scores.containsKey(nickname)) {
+            return false; // Usual case, without allocating a cell
+        }
+        ScoreCell cell = new ScoreCell(0);
+        if (scores.putIfAbsent(nickname, cell) != null) {
+            return false;
+        }
+        writer.submit(nickname, cell); // A score of 0 needs no saving if this is too late
+        return true;
+    }
+
+    // Score changes after close() have nowhere to go
+    private static void refused(String nickname) {
+        System.err.println("Score change for " + nickname + " not saved: the score store is closed");
+    }
+
+    private ScoreCell cell(String nickname) {
+        ScoreCell cell = scores.get(nickname);
+        return cell != null ? cell : scores.computeIfAbsent(nickname, k -> new ScoreCell(0));
+    }
+
+    @Override
+    public boolean canStore(String nickname) {
+        return ScoreJournal.canRecord(nickname);
+    }
+
+    @Override
+    public int size() {
+        return scores.size();
+    }
+
+    // Each score as it stands when it is reached; only a point-in-time view
+    // while nothing changes scores, as when the server starts
+    @Override
+    public void forEach(ScoreJournal.Sink sink) {
+        Map<String, ScoreCell> table = scores;
+        sink.presize(table.size());
+        for (Map.Entry<String, ScoreCell> entry : table.entrySet()) {
+            sink.put(entry.getKey(), entry.getValue().get());
+        }
+    }
+
+    // Commits every queued score change and folds the journal into a full
+    // snapshot
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (!opened || closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        writer.shutdown();
+        System.out.println("Score writer: " + writer.getCommittedUpdates() + " updates in "
+                + writer.getCommits() + " fsyncs, max durability lag "
+                + writer.getMaxCommitLagMillis() + " ms");
+    }
+
+    ScoreWriter getWriter() {
+        return writer;
+    }
+
+    // Copy of the score table for journal compaction; see ScoreWriter.compact()
+    // for why it need not be taken at one instant
+    private Map<String, Integer> copy() {
+        Map<String, ScoreCell> table = scores;
+        Map<String, Integer> copy = new HashMap<>(Math.max(16, (int) (table.size() / 0.75f) + 1));
+        for (Map.Entry<String, ScoreCell> entry : table.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().get());
+        }
+        return copy;
+    }
+
+    // Where open() loads the saved scores, presized from the snapshot
+    static final class Table implements ScoreJournal.Sink {
+        ConcurrentHashMap<String, ScoreCell> scores = new ConcurrentHashMap<>();
+
+        @Override
+        public void presize(int entries) {
+            scores = new ConcurrentHashMap<>(Math.max(16, entries));
+        }
+
+        @Override
+        public void put(String nickname, int score) {
+            if (!ScoreJournal.canRecord(nickname)) {
+                // Could never be written back; one such entry would fail every snapshot
+                System.err.println("Nickname of " + nickname.length() + " characters too long for the score store, not loaded");
+                return;
+            }
+            ScoreCell cell = scores.get(nickname);
+            if (cell == null) {
+                scores.put(nickname, new ScoreCell(score));
+            } else {
+                cell.set(score); // Replayed from the journal
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package src.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Finds connections that have gone quiet, from one periodic task on the
+// server's shared scheduler rather than a timer per connection. A client
+// that has sent nothing for a ping interval is pinged and should answer
+// 'pong'; one that stays silent for DEAD_AFTER_PINGS intervals is taken for
+// a dead TCP session and closed without ceremony. Live clients that send
+// no commands (pongs do not count) are told and disconnected after the idle
+// timeout, a shorter one while a match waits for their move (a player
+// waiting for the opponent's move is not idle). Every close ends in
+// ClientHandler.onDisconnect(), so removeClient() cleans up as usual.
+class Keepalive {
+    static final long SWEEP_MILLIS = 1000;
+    private static final int DEAD_AFTER_PINGS = 3; // Silent intervals, so two pings go unanswered
+    private static final long CLOSE_GRACE_NANOS = TimeUnit.SECONDS.toNanos(10); // For the goodbye to be written
+
+    private final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+    private final long pingIntervalNanos; // 0 = no pings
+    private final long idleTimeoutNanos; // 0 = no limit
+    private final long gameIdleTimeoutNanos; // 0 = no limit
+    private final Metrics.Counter pings;
+    private final Metrics.Counter idleDisconnects;
+    private final Metrics.Counter deadReaped;
+
+    Keepalive(ServerConfig config, Metrics metrics) {
+        this.pingIntervalNanos = TimeUnit.SECONDS.toNanos(config.getPingIntervalSeconds());
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getIdleTimeoutSeconds());
+        this.gameIdleTimeoutNanos = TimeUnit.SECONDS.toNanos(config.getGameIdleTimeoutSeconds());
+        this.pings = metrics.counter("pingsSent");
+        this.idleDisconnects = metrics.counter("idleDisconnects");
+        this.deadReaped = metrics.counter("deadConnectionsReaped");
+    }
+
+    void add(ClientHandler connection) {
+        connections.add(connection);
+    }
+
+    void remove(ClientHandler connection) {
+        connections.remove(connection);
+    }
+
+    // Scheduler thread
+    void sweep() {
+        long now = System.nanoTime();
+        for (ClientHandler connection : connections) {
+            try {
+                check(connection, now);
+            } catch (RuntimeException e) {
+                // One bad connection must not stop the sweeps for everyone
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void check(ClientHandler connection, long now) {
+        long closingSince = connection.getCloseRequestedAt();
+        if (closingSince != 0) {
+            // Still here: the goodbye could not be written, so stop waiting for it
+            if (now - closingSince >= CLOSE_GRACE_NANOS) {
+                connection.abortConnection();
+            }
+            return;
+        }
+
+        // Only registered players are pinged: before that, 'pong' could be taken for a nickname
+        if (pingIntervalNanos > 0 && connection.getNickname() != null) {
+            long silent = now - connection.getLastReadAt();
+            if (silent >= DEAD_AFTER_PINGS * pingIntervalNanos) {
+                deadReaped.increment();
+                System.out.println("Dropping client: no reply to pings");
+                connection.abortConnection();
+                return;
+            }
+            if (silent >= pingIntervalNanos && now - connection.getLastPingAt() >= pingIntervalNanos) {
+                pings.increment();
+                connection.ping(now);
+            }
+        }
+
+        Match match = connection.getMatch();
+        long limit = match == null ? idleTimeoutNanos : match.awaitsMove(connection) ? gameIdleTimeoutNanos : 0;
+        if (limit > 0 && now - connection.getLastCommandAt() >= limit) {
+            idleDisconnects.increment();
+            connection.disconnect(MessageCatalog.IDLE_TIMEOUT);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package src.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Player ranking kept up to date on every score change, so 'top' and
+// 'rank' never sort the score table. Players are bucketed by score in a
+// TreeMap (nicknames in order within a bucket), and a Fenwick tree over
+// the score values counts the players at each score, which gives the
+// number of players above any score in O(log max score). Ranks are
+// competition ranks: players on the same score share one.
+class Leaderboard implements ScoreJournal.Sink {
+    static final int MAX_TOP = 100; // Longest list a snapshot holds
+
+    static final class Entry {
+        final int rank;
+        final String nickname;
+        final int score;
+
+        Entry(int rank, String nickname, int score) {
+            this.rank = rank;
+            this.nickname = nickname;
+            this.score = score;
+        }
+    }
+
+    // The top of the board at one version; never changes once built
+    static final class Snapshot {
+        final long version;
+        final int players;
+        final List<Entry> top; // Unmodifiable, best first, at most MAX_TOP
+
+        Snapshot(long version, int players, List<Entry> top) {
+            this.version = version;
+            this.players = players;
+            this.top = top;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Integer, NavigableSet<String>> buckets = new TreeMap<>(Collections.reverseOrder());
+    private int[] counts = new int[64]; // Fenwick tree, 1-based, over score + 1
+    private int players;
+    private volatile long version;
+    private volatile Snapshot snapshot;
+
+    // Loading: every saved score once
+    @Override
+    public void put(String nickname, int score) {
+        changed(nickname, -1, score);
+    }
+
+    // oldScore is -1 for a player not on the board yet. Scores are never
+    // negative; a player missing from the old bucket is simply added.
+    void changed(String nickname, int oldScore, int newScore) {
+        lock.lock();
+        try {
+            if (index(newScore) >= counts.length) {
+                growCounts(index(newScore) + 1);
+            }
+            if (oldScore >= 0) {
+                NavigableSet<String> bucket = buckets.get(oldScore);
+                if (bucket != null && bucket.remove(nickname)) {
+                    if (bucket.isEmpty()) {
+                        buckets.remove(oldScore);
+                    }
+                    count(oldScore, -1);
+                    players--;
+                }
+            }
+            if (buckets.computeIfAbsent(newScore, score -> new TreeSet<>()).add(nickname)) {
+                count(newScore, 1);
+                players++;
+            }
+            version++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Competition rank of a score: 1 + the number of players above it
+    int rank(int score) {
+        lock.lock();
+        try {
+            return 1 + players - countAtOrBelow(score);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return players;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Cached until the next score change; repeated reads share one snapshot
+    Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null && current.version == version) {
+            return current;
+        }
+        lock.lock();
+        try {
+            current = snapshot;
+            if (current != null && current.version == version) {
+                return current;
+            }
+            List<Entry> top = new ArrayList<>(Math.min(players, MAX_TOP));
+            int rank = 1;
+            for (Map.Entry<Integer, NavigableSet<String>> bucket : buckets.entrySet()) {
+                for (String nickname : bucket.getValue()) {
+                    if (top.size() == MAX_TOP) {
+                        break;
+                    }
+                    top.add(new Entry(rank, nickname, bucket.getKey()));
+                }
+                if (top.size() == MAX_TOP) {
+                    break;
+                }
+                rank += bucket.getValue().size();
+            }
+            current = new Snapshot(version, players, Collections.unmodifiableList(top));
+            snapshot = current;
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Fenwick tree position of a score
+    private static int index(int score) {
+        return Math.max(score, 0) + 1;
+    }
+
+    // Caller holds lock; the tree already reaches the score
+    private void count(int score, int delta) {
+        for (int i = index(score); i < counts.length; i += i & -i) {
+            counts[i] += delta;
+        }
+    }
+
+    // Caller holds lock
+    private int countAtOrBelow(int score) {
+        int sum = 0;
+        for (int i = Math.min(index(score), counts.length - 1); i > 0; i -= i & -i) {
+            sum += counts[i];
+        }
+        return sum;
+    }
+
+    // Caller holds lock. Rebuilds the tree from the buckets at the next power
+    // of two that fits; scores grow one win at a time, so this is rare.
+    private void growCounts(int needed) {
+        int length = counts.length;
+        while (length < needed) {
+            length *= 2;
+        }
+        int[] grown = new int[length];
+        for (Map.Entry<Integer, NavigableSet<String>> bucket : buckets.entrySet()) {
+            for (int i = index(bucket.getKey()); i < length; i += i & -i) {
+                grown[i] += bucket.getValue().size();
+            }
+        }
+        counts = grown;
+    }
+}
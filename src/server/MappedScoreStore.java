@@ -0,0 +1,467 @@
+package src.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Score store backed by a memory-mapped file, <scores file>.map, holding an
+// open-addressing hash table of fixed-width slots. Startup maps the file
+// instead of deserializing it, lookups probe the mapping directly and a win is
+// a 4-byte write into the page cache. A checkpoint thread forces dirty pages
+// to disk once per flush interval.
+//
+// Layout: a 64-byte header (magic, version, capacity, size, clean flag)
+// followed by capacity slots of 64 bytes each:
+//   [0] used flag  [1] key length  [4..7] score  [8..11] key hash  [12..63] UTF-8 key
+// A slot's used flag is written last, so a crash half-way through an insert
+// leaves the slot empty. The clean flag is cleared while the store is open; if
+// it is still clear at the next start, the size in the header is recounted.
+class MappedScoreStore implements ScoreStore {
+    private static final int MAGIC = 0x5250534D; // "RPSM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 64;
+    private static final int SCORE_OFFSET = 4;
+    private static final int HASH_OFFSET = 8;
+    private static final int KEY_OFFSET = 12;
+    static final int MAX_NICKNAME_BYTES = SLOT_SIZE - KEY_OFFSET;
+    private static final int INITIAL_CAPACITY = 1024; // Slots, always a power of two
+    private static final int MAX_CAPACITY = 1 << 24; // Keeps the mapping under 2 GB
+
+    // Header fields
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int CAPACITY_AT = 8;
+    private static final int SIZE_AT = 12;
+    private static final int CLEAN_AT = 16;
+
+    private final Path file;
+    private final String legacyScoresFile; // Imported when the store is first created
+    private final long checkpointIntervalMillis;
+    private final LatencyHistogram saveTimes; // Forcing one checkpoint
+    private final ReentrantLock lock = new ReentrantLock(); // Guards the mapping
+    private MappedByteBuffer table;
+    private int capacity;
+    private int size;
+    private volatile boolean dirty; // Changed since the last checkpoint
+    private volatile boolean running;
+    private Thread checkpointer;
+    private volatile long checkpoints;
+
+    MappedScoreStore(ServerConfig config, LatencyHistogram saveTimes) {
+        this.legacyScoresFile = config.getScoresFile();
+        this.file = Paths.get(legacyScoresFile + ".map");
+        this.checkpointIntervalMillis = Math.max(1, config.getFlushIntervalMillis());
+        this.saveTimes = saveTimes;
+    }
+
+    @Override
+    public void open() throws IOException {
+        lock.lock();
+        try {
+            if (table != null) {
+                return;
+            }
+            if (Files.exists(file) && Files.size(file) > 0) {
+                mapExisting();
+            } else {
+                table = create(file, INITIAL_CAPACITY);
+                capacity = INITIAL_CAPACITY;
+                size = 0;
+                try {
+                    importLegacyScores();
+                } catch (IOException | RuntimeException e) {
+                    // Retry the import next time rather than start from a partial table
+                    table = null;
+                    Files.deleteIfExists(file);
+                    throw e;
+                }
+            }
+            table.put(CLEAN_AT, (byte) 0);
+            table.force();
+            System.out.println("Mapped " + size + " player scores from " + file);
+        } finally {
+            lock.unlock();
+        }
+
+        running = true;
+        checkpointer = new Thread(this::runCheckpoints, "rps-score-checkpoint");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    private void mapExisting() throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Truncated score store " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        if (mapped.getInt(MAGIC_AT) != MAGIC || mapped.getInt(VERSION_AT) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " score store: " + file);
+        }
+        int mappedCapacity = mapped.getInt(CAPACITY_AT);
+        if (Integer.bitCount(mappedCapacity) != 1 || mappedCapacity > MAX_CAPACITY
+                || mapped.capacity() != HEADER_SIZE + mappedCapacity * SLOT_SIZE) {
+            throw new IOException("Corrupt score store header in " + file);
+        }
+
+        table = mapped;
+        capacity = mappedCapacity;
+        if (mapped.get(CLEAN_AT) != 0) {
+            size = mapped.getInt(SIZE_AT);
+        } else {
+            System.err.println("Score store " + file + " was not closed cleanly, recounting players");
+            size = recount();
+            mapped.putInt(SIZE_AT, size);
+        }
+    }
+
+    // First start with this backend: carry over the scores kept by the journal
+    // store. Its files are left in place.
+    private void importLegacyScores() throws IOException {
+        int[] imported = new int[1];
+        new ScoreJournal(legacyScoresFile).load(new ScoreJournal.Sink() {
+            @Override
+            public void presize(int entries) {
+                while (entries * 4L > capacity * 3L && capacity < MAX_CAPACITY) {
+                    grow();
+                }
+            }
+
+            @Override
+            public void put(String nickname, int score) {
+                if (canStore(nickname)) {
+                    MappedScoreStore.this.put(nickname, score);
+                    imported[0]++;
+                } else {
+                    System.err.println("Nickname too long for the score store, not imported: " + nickname);
+                }
+            }
+        });
+        if (imported[0] > 0) {
+            System.out.println("Imported " + imported[0] + " player scores from " + legacyScoresFile);
+        }
+    }
+
+    @Override
+    public int get(String nickname) {
+        lock.lock();
+        try {
+            if (table == null) {
+                return 0; // Closed
+            }
+            int at = find(key(nickname), nickname.hashCode());
+            return at < 0 ? 0 : table.getInt(at + SCORE_OFFSET);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void set(String nickname, int score) {
+        lock.lock();
+        try {
+            if (table == null) {
+                refused(nickname);
+                return;
+            }
+            put(nickname, score);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Updated in place: no allocation beyond the key bytes, nothing queued
+    @Override
+    public int increment(String nickname) {
+        lock.lock();
+        try {
+            if (table == null) {
+                refused(nickname);
+                return -1;
+            }
+            byte[] key = key(nickname);
+            int hash = nickname.hashCode();
+            int at = find(key, hash);
+            if (at < 0) {
+                insert(key, hash, 1);
+                return 1;
+            }
+            int score = table.getInt(at + SCORE_OFFSET) + 1;
+            table.putInt(at + SCORE_OFFSET, score);
+            dirty = true;
+            return score;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean addIfAbsent(String nickname) {
+        lock.lock();
+        try {
+            if (table == null) {
+                return false; // Closed
+            }
+            byte[] key = key(nickname);
+            int hash = nickname.hashCode();
+            if (find(key, hash) >= 0) {
+                return false;
+            }
+            insert(key, hash, 0);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean canStore(String nickname) {
+        return key(nickname).length <= MAX_NICKNAME_BYTES;
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(ScoreJournal.Sink sink) {
+        lock.lock();
+        try {
+            if (table == null) {
+                return; // Closed
+            }
+            sink.presize(size);
+            byte[] key = new byte[MAX_NICKNAME_BYTES];
+            for (int slot = 0; slot < capacity; slot++) {
+                int at = HEADER_SIZE + slot * SLOT_SIZE;
+                if (table.get(at) == 0) {
+                    continue;
+                }
+                int length = table.get(at + 1);
+                for (int i = 0; i < length; i++) {
+                    key[i] = table.get(at + KEY_OFFSET + i);
+                }
+                sink.put(new String(key, 0, length, StandardCharsets.UTF_8), table.getInt(at + SCORE_OFFSET));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (checkpointer != null) {
+            checkpointer.interrupt();
+            try {
+                checkpointer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        lock.lock();
+        try {
+            if (table == null) {
+                return;
+            }
+            table.put(CLEAN_AT, (byte) 1);
+            table.force();
+            table = null;
+            System.out.println("Score store: " + size + " players in " + file + ", "
+                    + checkpoints + " checkpoints");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Score changes after close() have nowhere to go
+    private static void refused(String nickname) {
+        System.err.println("Score change for " + nickname + " not saved: the score store is closed");
+    }
+
+    long getCheckpoints() {
+        return checkpoints;
+    }
+
+    // Caller holds lock
+    private void put(String nickname, int score) {
+        byte[] key = key(nickname);
+        int hash = nickname.hashCode();
+        int at = find(key, hash);
+        if (at < 0) {
+            insert(key, hash, score);
+        } else {
+            table.putInt(at + SCORE_OFFSET, score);
+            dirty = true;
+        }
+    }
+
+    // Offset of the nickname's slot, or -1 if it has none. Linear probing;
+    // the table is never more than 3/4 full, so an empty slot ends the search.
+    private int find(byte[] key, int hash) {
+        int mask = capacity - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int at = HEADER_SIZE + slot * SLOT_SIZE;
+            if (table.get(at) == 0) {
+                return -1;
+            }
+            if (table.getInt(at + HASH_OFFSET) == hash && keyEquals(at, key)) {
+                return at;
+            }
+        }
+    }
+
+    private boolean keyEquals(int at, byte[] key) {
+        if (table.get(at + 1) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (table.get(at + KEY_OFFSET + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Caller holds lock and has checked the nickname is not in the table
+    private void insert(byte[] key, int hash, int score) {
+        if (key.length > MAX_NICKNAME_BYTES) {
+            throw new IllegalArgumentException("Nickname too long for the score store");
+        }
+        if ((size + 1) * 4L > capacity * 3L) {
+            grow();
+        }
+
+        int at = emptySlot(table, capacity, hash);
+        table.put(at + 1, (byte) key.length);
+        table.putInt(at + SCORE_OFFSET, score);
+        table.putInt(at + HASH_OFFSET, hash);
+        for (int i = 0; i < key.length; i++) {
+            table.put(at + KEY_OFFSET + i, key[i]);
+        }
+        table.put(at, (byte) 1); // Last, so a torn insert is never seen
+        size++;
+        table.putInt(SIZE_AT, size);
+        dirty = true;
+    }
+
+    private static int emptySlot(MappedByteBuffer table, int capacity, int hash) {
+        int mask = capacity - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int at = HEADER_SIZE + slot * SLOT_SIZE;
+            if (table.get(at) == 0) {
+                return at;
+            }
+        }
+    }
+
+    // Rehashes into a table twice the size, built and forced in a temporary
+    // file that then atomically replaces the old one. A crash part-way leaves
+    // the old file untouched.
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new UncheckedIOException(new IOException("Score store " + file + " is full"));
+        }
+        int newCapacity = capacity * 2;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            MappedByteBuffer bigger = create(tmp, newCapacity);
+            for (int slot = 0; slot < capacity; slot++) {
+                int from = HEADER_SIZE + slot * SLOT_SIZE;
+                if (table.get(from) == 0) {
+                    continue;
+                }
+                int to = emptySlot(bigger, newCapacity, table.getInt(from + HASH_OFFSET));
+                for (int i = 0; i < SLOT_SIZE; i += 8) {
+                    bigger.putLong(to + i, table.getLong(from + i));
+                }
+            }
+            bigger.putInt(SIZE_AT, size);
+            bigger.put(CLEAN_AT, (byte) 0);
+            bigger.force();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            table = bigger;
+            capacity = newCapacity;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not grow score store " + file, e);
+        }
+    }
+
+    private static MappedByteBuffer create(Path path, int capacity) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        }
+        mapped.putInt(MAGIC_AT, MAGIC);
+        mapped.putInt(VERSION_AT, VERSION);
+        mapped.putInt(CAPACITY_AT, capacity);
+        mapped.putInt(SIZE_AT, 0);
+        return mapped;
+    }
+
+    private int recount() {
+        int count = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (table.get(HEADER_SIZE + slot * SLOT_SIZE) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void runCheckpoints() {
+        while (running) {
+            try {
+                Thread.sleep(checkpointIntervalMillis);
+            } catch (InterruptedException e) {
+                return; // close() forces everything itself
+            }
+            checkpoint();
+        }
+    }
+
+    // Forces outside the lock so game threads keep updating scores meanwhile;
+    // anything they change after dirty is cleared goes out next time
+    private void checkpoint() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        MappedByteBuffer current;
+        lock.lock();
+        try {
+            current = table;
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) {
+            long start = System.nanoTime();
+            current.force();
+            saveTimes.record(System.nanoTime() - start);
+            checkpoints++;
+        }
+    }
+
+    private static byte[] key(String nickname) {
+        return nickname.getBytes(StandardCharsets.UTF_8);
+    }
+}
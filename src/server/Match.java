@@ -0,0 +1,126 @@
+package src.server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// State of one match between two players. Each match has its own lock, so
+// rounds in different matches resolve in parallel; RPSServer.gameLock is only
+// needed for matchmaking. Lock order is always gameLock before a match lock.
+class Match {
+    private final ClientHandler player1;
+    private final ClientHandler player2;
+    private final boolean coffeeBet;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock
+    private byte move1 = Moves.NONE;
+    private byte move2 = Moves.NONE;
+    private int wins1;
+    private int wins2;
+    private boolean finished;
+    private int round; // Bumped as each round ends, so a stale move deadline can tell
+    private TimerWheel.Timeout moveDeadline; // Of the current round, if any
+
+    Match(ClientHandler player1, ClientHandler player2, boolean coffeeBet) {
+        this.player1 = player1;
+        this.player2 = player2;
+        this.coffeeBet = coffeeBet;
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    ClientHandler getPlayer1() {
+        return player1;
+    }
+
+    ClientHandler getPlayer2() {
+        return player2;
+    }
+
+    ClientHandler getOpponent(ClientHandler player) {
+        return player == player1 ? player2 : player1;
+    }
+
+    boolean isCoffeeBet() {
+        return coffeeBet;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    void finish() {
+        finished = true;
+        setMoveDeadline(null);
+    }
+
+    // Ends the match early (e.g. on disconnect). Returns false if it had
+    // already finished, so only one side reports the result.
+    boolean abandon() {
+        lock.lock();
+        try {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            setMoveDeadline(null);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True while the round is waiting for this player's move
+    boolean awaitsMove(ClientHandler player) {
+        lock.lock();
+        try {
+            return !finished && getMove(player) == Moves.NONE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    byte getMove(ClientHandler player) {
+        return player == player1 ? move1 : move2;
+    }
+
+    void setMove(ClientHandler player, byte move) {
+        if (player == player1) {
+            move1 = move;
+        } else {
+            move2 = move;
+        }
+    }
+
+    void clearMoves() {
+        move1 = Moves.NONE;
+        move2 = Moves.NONE;
+        round++;
+    }
+
+    int getRound() {
+        return round;
+    }
+
+    // Cancels the previous round's deadline, if it has not fired yet
+    void setMoveDeadline(TimerWheel.Timeout deadline) {
+        if (moveDeadline != null) {
+            moveDeadline.cancel();
+        }
+        moveDeadline = deadline;
+    }
+
+    int getWins(ClientHandler player) {
+        return player == player1 ? wins1 : wins2;
+    }
+
+    // Returns the player's new round-win count
+    int addWin(ClientHandler player) {
+        return player == player1 ? ++wins1 : ++wins2;
+    }
+}
@@ -0,0 +1,102 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Outbound game messages, encoded once at startup. Constant messages are
+// shared buffers in both protocols; messages that carry a value
+// are assembled from the encoded pieces below in ClientHandler's reusable
+// scratch buffer, so sending a game event builds no Strings and allocates
+// nothing per send.
+final class MessageCatalog {
+
+    // A constant message as a text line and as a binary TEXT frame
+    static final class Constant {
+        final ByteBuffer line;
+        final ByteBuffer frame;
+        final byte[] lineBytes; // For copying into a larger message; never modified
+
+        private Constant(String text) {
+            this.lineBytes = bytes(text + "\n");
+            this.line = shared(lineBytes);
+            this.frame = shared(BinaryProtocol.text(text));
+        }
+    }
+
+    static final Constant CHOOSE_NICKNAME = new Constant("***Choose a nickname***");
+    static final Constant COFFEE_BET_ENABLED = new Constant("***Coffee Bet Mode enabled!***");
+    static final Constant CHOOSE_MOVE = new Constant("***Choose your move: R (Rock), P (Paper), or S (Scissors)***");
+    static final Constant NEXT_ROUND = new Constant(
+            "***Next round! Choose your move: R (Rock), P (Paper), or S (Scissors)***");
+    static final Constant WAITING_FOR_MOVE = new Constant("***Waiting for opponent's move***");
+    static final Constant ROUND_DRAW = new Constant("***It's a draw for this round!***");
+    static final Constant MATCH_WON = new Constant("***Congratulations! You've won the match!***");
+    static final Constant MATCH_LOST = new Constant("***You've lost the match. Better luck next time!***");
+    static final Constant OPPONENT_DISCONNECTED = new Constant("***Your opponent has disconnected***");
+    static final Constant NOT_IN_GAME = new Constant("***You are not in a game***");
+    static final Constant TYPE_PLAY = new Constant("***Type 'play' to start a new game***");
+    static final Constant PING = new Constant("***ping***"); // Clients answer 'pong'
+    static final Constant IDLE_TIMEOUT = new Constant("***Disconnected: idle for too long***");
+    static final Constant MOVE_TIMED_OUT = new Constant("***Time is up! You forfeit this round***");
+    static final Constant OPPONENT_TIMED_OUT = new Constant("***Your opponent ran out of time***");
+    static final Constant SERVER_FULL = new Constant("***Server is full. Try again later***");
+    static final Constant SERVER_BUSY = new Constant("***Server is busy. Try again in a moment***");
+    static final Constant TOO_MANY_FROM_ADDRESS = new Constant("***Too many connections from your address***");
+    static final Constant SLOW_DOWN = new Constant("***Too many commands. Slow down, some were ignored***");
+    static final Constant COMMAND_FLOOD = new Constant("***Disconnected: too many commands***");
+    static final Constant MATCH_CALLED_OFF = new Constant("***Neither player moved in time. The match is called off***");
+
+    // Pieces of text lines that carry a value
+    static final byte[] PLAYING_WITH = bytes("***You are now playing with ");
+    static final byte[] FIRST_TO_WIN = bytes("***First to win ");
+    static final byte[] ROUNDS_WIN_MATCH = bytes(" rounds wins the match!***\n");
+    static final byte[] YOUR_MOVE = bytes("***Your move: ");
+    static final byte[] OPPONENTS_MOVE = bytes(", Opponent's move: ");
+    static final byte[] ROUND_WON = bytes("***You won this round! (Round wins: ");
+    static final byte[] ROUND_LOST = bytes("***You lost this round! (Round wins: ");
+    static final byte[] WINS_END = bytes(")***\n");
+    static final byte[] YOUR_SCORE = bytes("***Your score is ");
+    static final byte[] YOUR_OVERALL_SCORE = bytes("***Your overall score is ");
+    static final byte[] COFFEE_BET_FROM = bytes("***Player ");
+    static final byte[] COFFEE_BET_END = bytes(
+            " wants to play a Coffee Bet game (loser buys coffee)***\n***Do you accept the Coffee Bet challenge? (y/n)***\n");
+    static final byte[] INVITATION_FROM = bytes("***You have an invitation from ");
+    static final byte[] QUEUED_INVITATION_FROM = bytes("***You have a queued invitation from ");
+    static final byte[] INVITATION_END = bytes(", play game? (y/n)***\n");
+    static final byte[] LINE_END = bytes("***\n");
+
+    // Longest value putInt() writes
+    static final int MAX_INT_LENGTH = 11;
+
+    private MessageCatalog() {
+    }
+
+    // Writes the value in decimal without going through a String
+    static void putInt(ByteBuffer out, int value) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                out.put(bytes(Integer.toString(value)));
+                return;
+            }
+            out.put((byte) '-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Not a read-only view, so transports can reach the backing array; nothing
+    // writes to or moves a shared buffer (see ClientConnection.send)
+    static ByteBuffer shared(byte[] bytes) {
+        return ByteBuffer.wrap(bytes);
+    }
+}
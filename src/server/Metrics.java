@@ -0,0 +1,143 @@
+package src.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+// Named counters, gauges and latency histograms of one server. Everything is
+// registered while the server is constructed and only updated afterwards,
+// so the registry itself needs no locking. Read as text by the 'stats'
+// admin command and the periodic metrics file, and as a JMX MBean with one
+// read-only attribute per value.
+class Metrics {
+    static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        void increment() {
+            value.increment();
+        }
+
+        long get() {
+            return value.sum();
+        }
+    }
+
+    private final Map<String, LongSupplier> values = new LinkedHashMap<>(); // Counters and gauges
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+    Counter counter(String name) {
+        Counter counter = new Counter();
+        values.put(name, counter::get);
+        return counter;
+    }
+
+    // Read only when a report is taken
+    void gauge(String name, LongSupplier gauge) {
+        values.put(name, gauge);
+    }
+
+    LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histograms.put(name, histogram);
+        return histogram;
+    }
+
+    // One "name value" line per counter and gauge, then one line per
+    // histogram with its count, percentiles and max in microseconds
+    List<String> report() {
+        List<String> lines = new ArrayList<>(values.size() + histograms.size());
+        for (Map.Entry<String, LongSupplier> value : values.entrySet()) {
+            lines.add(value.getKey() + " " + value.getValue().getAsLong());
+        }
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            lines.add(histogram.getKey() + " " + histogram.getValue());
+        }
+        return lines;
+    }
+
+    DynamicMBean mbean() {
+        Map<String, LongSupplier> attributes = new LinkedHashMap<>(values);
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            attributes.put(name + "Count", histogram::getCount);
+            attributes.put(name + "P50Nanos", () -> histogram.percentile(0.50));
+            attributes.put(name + "P99Nanos", () -> histogram.percentile(0.99));
+            attributes.put(name + "P999Nanos", () -> histogram.percentile(0.999));
+            attributes.put(name + "MaxNanos", histogram::getMax);
+        }
+        return new MetricsMBean(attributes);
+    }
+
+    // Read-only Long attributes, so the values show up in any JMX console
+    // without a public MBean interface
+    private static final class MetricsMBean implements DynamicMBean {
+        private final Map<String, LongSupplier> attributes;
+        private final MBeanInfo info;
+
+        MetricsMBean(Map<String, LongSupplier> attributes) {
+            this.attributes = attributes;
+            MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+            int i = 0;
+            for (String name : attributes.keySet()) {
+                infos[i++] = new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false);
+            }
+            this.info = new MBeanInfo(RPSServer.class.getName(), "Rock-Paper-Scissors server metrics", infos, null,
+                    new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+        }
+
+        @Override
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            LongSupplier value = attributes.get(name);
+            if (value == null) {
+                throw new AttributeNotFoundException(name);
+            }
+            return value.getAsLong();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                LongSupplier value = attributes.get(name);
+                if (value != null) {
+                    list.add(new Attribute(name, value.getAsLong()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
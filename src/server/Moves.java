@@ -0,0 +1,44 @@
+package src.server;
+
+// Moves are small ints from parsing the command through to the match state,
+// so resolving a round is one lookup in an N x N outcome table. The rule
+// set is the BEATS list; a variant with more moves only adds moves and pairs.
+final class Moves {
+    static final byte NONE = -1; // No move made yet this round
+    static final byte ROCK = 0;
+    static final byte PAPER = 1;
+    static final byte SCISSORS = 2;
+
+    static final int COUNT = 3;
+
+    // The letter each move is typed and sent as, in both protocols
+    private static final byte[] SYMBOLS = { 'R', 'P', 'S' };
+
+    // { winner, loser } for every pair of different moves
+    private static final byte[][] BEATS = {
+            { ROCK, SCISSORS },
+            { PAPER, ROCK },
+            { SCISSORS, PAPER },
+    };
+
+    // OUTCOMES[move * COUNT + other]: 1 if move beats other, -1 if it loses, 0 draw
+    private static final byte[] OUTCOMES = new byte[COUNT * COUNT];
+
+    static {
+        for (byte[] pair : BEATS) {
+            OUTCOMES[pair[0] * COUNT + pair[1]] = 1;
+            OUTCOMES[pair[1] * COUNT + pair[0]] = -1;
+        }
+    }
+
+    private Moves() {
+    }
+
+    static int outcome(byte move, byte other) {
+        return OUTCOMES[move * COUNT + other];
+    }
+
+    static byte symbol(byte move) {
+        return SYMBOLS[move];
+    }
+}
@@ -0,0 +1,367 @@
+package src.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Selector-based transport: one acceptor plus a small pool of event loops,
+// each multiplexing many connections. Input is framed into the same
+// newline-delimited lines the blocking ClientHandler reads and fed into
+// ClientHandler.handleLine, so all game logic is shared between transports.
+class NioTransport {
+    private static final int READ_BUFFER_SIZE = 8192; // Shared per event loop
+
+    private final RPSServer server;
+    private final EventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+    private int nextLoop = 0;
+
+    NioTransport(RPSServer server, int eventLoops) {
+        this.server = server;
+        this.loops = new EventLoop[eventLoops];
+    }
+
+    void bind(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
+    // Runs the accept loop on the calling thread until stop() is called
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "rps-event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try {
+            while (running) {
+                SocketChannel channel = serverChannel.accept();
+                if (!server.admit(channel.socket())) {
+                    continue;
+                }
+                System.out.println("New client connected: " + channel.socket().getInetAddress().getHostAddress());
+
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                // Round-robin new connections over the event loops
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } catch (ClosedChannelException e) {
+            if (running) {
+                throw e;
+            }
+        }
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<NioConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+        private Thread thread;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        // Called from any thread that queued output for a connection on this loop
+        void requestFlush(NioConnection connection) {
+            pendingFlushes.add(connection);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            try {
+                while (running) {
+                    selector.select();
+                    registerNewChannels();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+
+                        try {
+                            if (!key.isValid()) {
+                                connection.closeNow();
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (RuntimeException e) {
+                            drop(connection, e);
+                        }
+                    }
+
+                    NioConnection connection;
+                    while ((connection = pendingFlushes.poll()) != null) {
+                        try {
+                            connection.flush();
+                        } catch (RuntimeException e) {
+                            drop(connection, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Event loop error: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((NioConnection) key.attachment()).closeNow();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                NioConnection connection = new NioConnection(this, channel);
+                try {
+                    connection.handler.setAdmittedFrom(channel.socket().getInetAddress());
+                    try {
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    } catch (IOException e) {
+                        System.out.println("Error registering client: " + e.getMessage());
+                        connection.closeNow();
+                        continue;
+                    }
+                    connection.handler.onConnect();
+                } catch (RuntimeException e) {
+                    drop(connection, e);
+                }
+            }
+        }
+
+        // A bug hit while serving one connection closes that connection,
+        // not the loop and every other connection on it
+        private void drop(NioConnection connection, RuntimeException e) {
+            System.err.println("Error serving client, closing it: " + e);
+            e.printStackTrace();
+            try {
+                connection.closeNow();
+            } catch (RuntimeException again) {
+                again.printStackTrace();
+            }
+        }
+    }
+
+    private final class NioConnection implements ClientConnection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final ClientHandler handler;
+        private final OutboundBuffer outbound = server.newOutboundBuffer();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private SelectionKey key;
+        private byte[] partialLine; // Dropped whenever no line is in progress
+        private int partialLength;
+        private volatile boolean closeRequested;
+        private volatile boolean abortRequested; // Close without writing what is queued
+        private boolean closed;
+
+        NioConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.handler = new ClientHandler(this, server);
+        }
+
+        // Queues without blocking; the event loop writes everything queued
+        // since its last flush with one channel write
+        @Override
+        public void send(ByteBuffer encoded) {
+            if (!outbound.offer(encoded)) {
+                // Closed from the event loop later, never here: the sender
+                // may be holding game locks that disconnecting needs
+                System.out.println("Dropping client: not reading its messages");
+                closeRequested = true;
+                flushScheduled.set(true);
+                loop.requestFlush(this);
+                return;
+            }
+            scheduleFlush();
+        }
+
+        @Override
+        public void close() {
+            closeRequested = true;
+            if (loop.inEventLoop()) {
+                flush();
+            } else {
+                // Let the event loop drain pending output before closing
+                flushScheduled.set(true);
+                loop.requestFlush(this);
+            }
+        }
+
+        @Override
+        public void abort() {
+            abortRequested = true;
+            close();
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.requestFlush(this);
+            }
+        }
+
+        // Event loop thread only
+        void read() {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            int read;
+            try {
+                read = channel.read(buffer);
+            } catch (IOException e) {
+                System.out.println("Error handling client: " + e.getMessage());
+                closeNow();
+                return;
+            }
+            if (read < 0) {
+                closeNow();
+                return;
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining() && !closed) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    String line = partialLength == 0 ? ""
+                            : new String(partialLine, 0, trimCarriageReturn(), StandardCharsets.UTF_8);
+                    partialLength = 0;
+                    handler.handleLine(line);
+                } else {
+                    appendToLine(b);
+                }
+            }
+
+            // Release the line buffer between commands so idle connections stay small
+            if (partialLength == 0) {
+                partialLine = null;
+            }
+        }
+
+        private int trimCarriageReturn() {
+            if (partialLength > 0 && partialLine[partialLength - 1] == '\r') {
+                return partialLength - 1;
+            }
+            return partialLength;
+        }
+
+        private void appendToLine(byte b) {
+            if (partialLine == null) {
+                partialLine = new byte[64];
+            } else if (partialLength == partialLine.length) {
+                if (partialLength >= ClientHandler.MAX_LINE_LENGTH) {
+                    System.out.println("Dropping client: line too long");
+                    closeNow();
+                    return;
+                }
+                byte[] grown = new byte[Math.min(partialLine.length * 2, ClientHandler.MAX_LINE_LENGTH)];
+                System.arraycopy(partialLine, 0, grown, 0, partialLength);
+                partialLine = grown;
+            }
+            partialLine[partialLength++] = b;
+        }
+
+        // Event loop thread only
+        void flush() {
+            if (closed) {
+                return;
+            }
+            if (abortRequested) {
+                closeNow();
+                return;
+            }
+            flushScheduled.set(false);
+
+            try {
+                if (!outbound.writeTo(channel)) {
+                    // Socket buffer is full; resume when it becomes writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                System.out.println("Error handling client: " + e.getMessage());
+                closeNow();
+                return;
+            }
+
+            if (closeRequested) {
+                closeNow();
+            }
+        }
+
+        // Event loop thread only
+        void closeNow() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.close();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            handler.onDisconnect();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package src.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Output waiting for one client. Game threads append whole messages without
+// ever blocking on the socket; the connection's writer (a pooled writer
+// thread, or the NIO event loop) then writes everything queued since its last write in
+// one go. The buffer is bounded: a message that does not fit is dropped, and
+// a client that has dropped more than maxDrops messages since its queue was
+// last empty is a slow consumer, to be disconnected. The bound is on the
+// backlog, not on one message: a client that is keeping up always gets the
+// next message, however long (a 'players' roster of thousands, say).
+final class OutboundBuffer {
+    private static final int INITIAL_SIZE = 512; // Grows up to the limit
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final OutboundStats stats;
+    private final int limit; // Most unwritten bytes held for the client
+    private final int maxDrops;
+    private ByteBuffer pending; // Write mode; allocated on first use
+    private ByteBuffer spare; // Returned by the blocking writer after each write
+    private int unwritten; // In pending, plus taken by the blocking writer and not yet written
+    private int drops; // Since unwritten was last zero
+    private boolean closed;
+    private boolean closing; // Takes no more messages; closes once the rest is written
+
+    OutboundBuffer(OutboundStats stats, int limit, int maxDrops) {
+        this.stats = stats;
+        this.limit = limit;
+        this.maxDrops = maxDrops;
+    }
+
+    // Copies the message in, or drops it if the client is too far behind.
+    // Returns false, once, when the client turns out to be a slow consumer;
+    // the buffer is closed by then and the caller should disconnect.
+    boolean offer(ByteBuffer encoded) {
+        int length = encoded.remaining();
+        lock.lock();
+        try {
+            if (closed || closing) {
+                return true;
+            }
+            if (unwritten > 0 && unwritten + length > limit) {
+                stats.dropped();
+                if (++drops > maxDrops) {
+                    stats.slowConsumer();
+                    close();
+                    return false;
+                }
+                return true;
+            }
+
+            if (pending == null) {
+                pending = ByteBuffer.allocate(Math.max(Math.min(INITIAL_SIZE, limit), length));
+            } else if (pending.remaining() < length) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(Math.min(pending.capacity() * 2, limit), pending.position() + length));
+                pending.flip();
+                grown.put(pending);
+                pending = grown;
+            }
+            pending.put(encoded.array(), encoded.arrayOffset() + encoded.position(), length);
+            unwritten += length;
+            stats.queued(length, unwritten);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking writer: writes as much as the channel takes. Returns true
+    // once nothing is left.
+    boolean writeTo(WritableByteChannel channel) throws IOException {
+        lock.lock();
+        try {
+            if (closed || pending == null || pending.position() == 0) {
+                return true;
+            }
+            pending.flip();
+            int written;
+            try {
+                written = channel.write(pending);
+            } finally {
+                pending.compact();
+            }
+            if (written > 0) {
+                wrote(written);
+            }
+            if (unwritten == 0 && pending.capacity() > limit) {
+                pending = null; // Grown past the limit for one long message
+            }
+            return unwritten == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocking writer: takes all queued output, ready to read, or returns
+    // null if there is none. Hand the buffer back with written() once it has
+    // been sent. Closes the buffer once closeWhenWritten() has been called
+    // and everything is taken.
+    ByteBuffer take() {
+        lock.lock();
+        try {
+            if (!closed && (pending == null || pending.position() == 0)) {
+                if (closing) {
+                    close();
+                }
+                return null;
+            }
+            if (closed) {
+                return null;
+            }
+            ByteBuffer taken = pending;
+            pending = spare;
+            spare = null;
+            taken.flip();
+            return taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void written(ByteBuffer taken) {
+        lock.lock();
+        try {
+            if (closed) {
+                return; // Already counted as discarded
+            }
+            wrote(taken.limit());
+            taken.clear();
+            spare = taken.capacity() > limit ? null : taken; // Grown past the limit for one long message
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds lock
+    private void wrote(int bytes) {
+        unwritten -= bytes;
+        stats.written(bytes);
+        if (unwritten == 0) {
+            drops = 0;
+        }
+    }
+
+    // Blocking writer: true if take() has something to do, output or closing
+    boolean needsWrite() {
+        lock.lock();
+        try {
+            return !closed && (closing || (pending != null && pending.position() > 0));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes no more messages; closes once what is queued has been taken
+    void closeWhenWritten() {
+        lock.lock();
+        try {
+            closing = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Discards whatever is still unwritten and ignores later messages
+    void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stats.discarded(unwritten);
+            unwritten = 0;
+            pending = null;
+            spare = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package src.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Server-wide counters for what OutboundBuffers hold and write, shared by
+// every connection of both transports
+class OutboundStats {
+    private final LongAdder messages = new LongAdder(); // Queued for sending
+    private final LongAdder writes = new LongAdder(); // Socket writes; each covers one or more messages
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder slowConsumers = new LongAdder(); // Connections closed for falling behind
+    private final AtomicLong queuedBytes = new AtomicLong(); // Not yet written, over all connections
+    private final AtomicLong peakConnectionBytes = new AtomicLong(); // Deepest single queue seen
+
+    void queued(int bytes, int connectionDepth) {
+        messages.increment();
+        queuedBytes.addAndGet(bytes);
+        long peak;
+        while (connectionDepth > (peak = peakConnectionBytes.get())) {
+            if (peakConnectionBytes.compareAndSet(peak, connectionDepth)) {
+                break;
+            }
+        }
+    }
+
+    void written(int bytes) {
+        writes.increment();
+        queuedBytes.addAndGet(-bytes);
+    }
+
+    // Bytes that will never be written, because their connection closed
+    void discarded(int bytes) {
+        queuedBytes.addAndGet(-bytes);
+    }
+
+    void dropped() {
+        droppedMessages.increment();
+    }
+
+    void slowConsumer() {
+        slowConsumers.increment();
+    }
+
+    long getMessages() {
+        return messages.sum();
+    }
+
+    long getWrites() {
+        return writes.sum();
+    }
+
+    long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    long getSlowConsumers() {
+        return slowConsumers.sum();
+    }
+
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    long getPeakConnectionBytes() {
+        return peakConnectionBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return getMessages() + " messages in " + getWrites() + " writes, " + getDroppedMessages() + " dropped, "
+                + getSlowConsumers() + " slow consumers disconnected, " + getQueuedBytes() + " bytes queued, deepest queue "
+                + getPeakConnectionBytes() + " bytes";
+    }
+}
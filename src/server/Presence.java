@@ -0,0 +1,148 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Who is online and who is in a match. The 'players' roster string is
+// rebuilt only when something changed since it was last asked for, and
+// clients that 'watch' get every change pushed to them as it happens, each
+// change encoded once for all of them. Changes are published under the
+// lock, so watchers see them in order; sending only queues (see
+// OutboundBuffer), so this lock is never held across a socket write.
+class Presence {
+    enum Change {
+        JOINED(1, "***Player joined: "),
+        LEFT(2, "***Player left: "),
+        IN_GAME(3, "***Player in game: "),
+        IN_LOBBY(4, "***Player in lobby: ");
+
+        final byte code; // In BinaryProtocol.PRESENCE frames
+        final byte[] prefix; // Of the text line
+
+        Change(int code, String prefix) {
+            this.code = (byte) code;
+            this.prefix = MessageCatalog.bytes(prefix);
+        }
+    }
+
+    static final String WATCHING = "***Watching players***"; // Followed by the current roster
+    static final String NOT_WATCHING = "***Stopped watching players***";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Boolean> players = new LinkedHashMap<>(); // Nickname -> in a match; join order
+    private final Set<ClientHandler> watchers = new LinkedHashSet<>();
+    private long version; // Bumped on every change
+    private String roster = "";
+    private long rosterVersion;
+
+    void joined(String nickname) {
+        lock.lock();
+        try {
+            if (players.put(nickname, false) == null) {
+                changed(Change.JOINED, nickname);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void left(String nickname) {
+        lock.lock();
+        try {
+            if (players.remove(nickname) != null) {
+                changed(Change.LEFT, nickname);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setInGame(String nickname, boolean inGame) {
+        lock.lock();
+        try {
+            Boolean was = players.get(nickname);
+            if (was != null && was != inGame) {
+                players.put(nickname, inGame);
+                changed(inGame ? Change.IN_GAME : Change.IN_LOBBY, nickname);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Comma-separated nicknames in join order
+    String roster() {
+        lock.lock();
+        try {
+            if (rosterVersion != version) {
+                roster = String.join(", ", players.keySet());
+                rosterVersion = version;
+            }
+            return roster;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sends the whole roster as changes, then keeps the watcher up to date
+    void watch(ClientHandler watcher) {
+        lock.lock();
+        try {
+            watcher.sendMessage(WATCHING);
+            for (Map.Entry<String, Boolean> player : players.entrySet()) {
+                send(watcher, Change.JOINED, player.getKey());
+                if (player.getValue()) {
+                    send(watcher, Change.IN_GAME, player.getKey());
+                }
+            }
+            watchers.add(watcher);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unwatch(ClientHandler watcher) {
+        lock.lock();
+        try {
+            watchers.remove(watcher);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds lock
+    private void changed(Change change, String nickname) {
+        version++;
+        if (watchers.isEmpty()) {
+            return;
+        }
+        byte[] name = MessageCatalog.bytes(nickname);
+        ByteBuffer line = line(change, name);
+        ByteBuffer frame = frame(change, name);
+        for (ClientHandler watcher : watchers) {
+            watcher.send(line, frame);
+        }
+    }
+
+    private static void send(ClientHandler watcher, Change change, String nickname) {
+        byte[] name = MessageCatalog.bytes(nickname);
+        watcher.send(line(change, name), frame(change, name));
+    }
+
+    private static ByteBuffer line(Change change, byte[] nickname) {
+        ByteBuffer line = ByteBuffer.allocate(change.prefix.length + nickname.length + MessageCatalog.LINE_END.length);
+        line.put(change.prefix).put(nickname).put(MessageCatalog.LINE_END).flip();
+        return line;
+    }
+
+    private static ByteBuffer frame(Change change, byte[] nickname) {
+        ByteBuffer frame = ByteBuffer.allocate(nickname.length + 2 + 2 * BinaryProtocol.MAX_VARINT_LENGTH);
+        BinaryProtocol.putPresence(frame, change.code, nickname);
+        frame.flip();
+        return frame;
+    }
+}
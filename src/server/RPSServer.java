@@ -1,164 +1,545 @@
 package src.server;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.net.*;
 // Explicitly import Inet4Address for better network interface handling
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class RPSServer {
-    private static final int DEFAULT_PORT = 5000;
     private static final int WINS_NEEDED = 3; // Wins needed for a match
-    private static final String SCORES_FILE = "player_scores.dat"; // Saved scores
     private static final int HEARTBEAT_PORT = 5001; // For auto-discovery
     private static final int HEARTBEAT_INTERVAL = 3000; // 3 seconds between pings
+    private static final int DISCOVERY_BURST_INTERVAL = 250; // Between the --discovery-burst pings at startup
+    private static final int INTERFACE_CHECK_INTERVAL = 30000; // How often the heartbeat looks for network changes
+    private static final int MULTICAST_TTL = 1; // Discovery stays on the local network
+    // Where broadcast heartbeats go when no interface has a broadcast address of its own
+    private static final InetSocketAddress LIMITED_BROADCAST = new InetSocketAddress("255.255.255.255", HEARTBEAT_PORT);
+    private static final int WRITER_IDLE_SECONDS = 30; // Before an idle writer pool thread exits
+    private static final int SHUTDOWN_WAIT_MILLIS = 5000; // For sessions and timers to finish on stop()
+    private static final int TIMER_TICK_MILLIS = 100; // Move deadlines and invitation expiry fire up to this late
+    private static final int TIMER_BUCKETS = 512; // One turn of the wheel is 51.2 s
+    private final ServerConfig config;
     private ServerSocket serverSocket;
+    private NioTransport nioTransport;
+    private ExecutorService clientExecutor; // Virtual threads, when enabled
+    private ExecutorService writerPool; // Blocking writes for the thread transport
+    // Guards matchmaking state (waiting players, invitations, coffee bet
+    // requests). Rounds are resolved under each Match's own lock instead. These
+    // are ReentrantLocks rather than synchronized so that a virtual thread
+    // blocked on a socket write while holding one does not pin its carrier thread.
+    private final ReentrantLock gameLock = new ReentrantLock();
     private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private final Map<String, Integer> scores = new HashMap<>();
-    private final Map<ClientHandler, ClientHandler> matches = new ConcurrentHashMap<>();
-    private final Map<ClientHandler, String> moves = new ConcurrentHashMap<>();
-    private final Map<ClientHandler, Integer> roundWins = new ConcurrentHashMap<>(); // Current match wins
-    private final Map<ClientHandler, Boolean> coffeeBetMode = new ConcurrentHashMap<>(); // Coffee mode status
-    private final Map<ClientHandler, ClientHandler> pendingCoffeeBetRequests = new ConcurrentHashMap<>(); // Coffee bet
-                                                                                                          // requests
+    private final ScoreStore scoreStore;
+    private final OutboundStats outboundStats = new OutboundStats();
+    private final Leaderboard leaderboard = new Leaderboard(); // Follows every score change
+    private final Presence presence = new Presence();
+    private boolean scoresLoaded;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final WaitingQueue regularQueue = new WaitingQueue(); // Players waiting after 'play'
+    private final WaitingQueue coffeeBetQueue = new WaitingQueue(); // Players waiting after 'play coffee'
+    private long nextWaitTicket = 0; // Orders players across both queues, guarded by gameLock
     private HeartbeatBroadcaster heartbeatBroadcaster;
 
-    // Invitation tracking
-    private final Map<ClientHandler, ClientHandler> pendingInvitations = new ConcurrentHashMap<>(); // Sender->receiver
-    private final Map<ClientHandler, List<ClientHandler>> queuedInvitations = new ConcurrentHashMap<>(); // For busy
-                                                                                                         // players
+    // Counters are bumped where things happen; gauges are read from the
+    // structures above when a report is taken
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Counter connections = metrics.counter("connections");
+    private final Metrics.Counter disconnections = metrics.counter("disconnections");
+    private final Metrics.Counter matchesStarted = metrics.counter("matchesStarted");
+    private final Metrics.Counter matchesFinished = metrics.counter("matchesFinished"); // Won, lost or abandoned
+    private final Metrics.Counter rounds = metrics.counter("rounds");
+    private final Metrics.Counter invitationsSent = metrics.counter("invitations"); // Including coffee bet challenges
+    private final Metrics.Counter coffeeBets = metrics.counter("coffeeBetMatches");
+    private final Metrics.Counter roundsForfeited = metrics.counter("roundsForfeited"); // A move timed out
+    private final Metrics.Counter matchesCalledOff = metrics.counter("matchesCalledOff"); // Neither player moved
+    private final Metrics.Counter invitationsExpired = metrics.counter("invitationsExpired");
+    private final Metrics.Counter commandsThrottled = metrics.counter("commandsThrottled"); // Dropped over budget
+    private final Metrics.Counter floodDisconnects = metrics.counter("floodDisconnects");
+    private final LatencyHistogram moveTimes = metrics.histogram("handleMove");
+    private final LatencyHistogram matchmakingWaits = metrics.histogram("matchmakingWait"); // Queued until matched
+    private final LatencyHistogram saveTimes = metrics.histogram("scoreSave"); // One fsync or checkpoint
+    private final Keepalive keepalive;
+    private final AdmissionControl admission;
+    private ObjectName metricsName; // Registered with JMX while running
+    // Shared by every periodic server task: keepalive sweeps, timer wheel
+    // ticks, the metrics file, discovery heartbeats
+    private ScheduledExecutorService scheduler;
+    private final TimerWheel timers = new TimerWheel(TIMER_TICK_MILLIS, TIMER_BUCKETS);
+
+    // Invitation and coffee bet challenge tracking, guarded by gameLock
+    private final InvitationRegistry invitations = new InvitationRegistry();
 
     public static void main(String[] args) {
-        int port = DEFAULT_PORT;
-
         // Parse command-line arguments if provided
-        if (args.length > 0) {
-            try {
-                port = Integer.parseInt(args[0]);
-            } catch (NumberFormatException e) {
-                System.err.println("Invalid port number. Using default port " + DEFAULT_PORT);
-            }
+        ServerConfig config = ServerConfig.parse(args);
+
+        RPSServer server = new RPSServer(config);
+        if (!server.loadScores()) {
+            // Starting with an empty table would overwrite the saved scores
+            System.err.println("Not starting: the saved scores could not be loaded. Move the scores file aside to start fresh.");
+            System.exit(1);
         }
 
-        RPSServer server = new RPSServer();
-        server.loadScores(); // Load scores from file
-        server.start(port);
+        // Commit queued score changes on Ctrl+C as well
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start(config.getPort());
+    }
+
+    public RPSServer() {
+        this(new ServerConfig());
+    }
+
+    RPSServer(ServerConfig config) {
+        this.config = config;
+        this.scoreStore = config.getScoreBackend() == ServerConfig.ScoreBackend.MAPPED
+                ? new MappedScoreStore(config, saveTimes)
+                : new JournaledScoreStore(config, saveTimes);
+
+        this.keepalive = new Keepalive(config, metrics);
+        this.admission = new AdmissionControl(config, metrics);
+
+        metrics.gauge("openConnections", () -> connections.get() - disconnections.get());
+        metrics.gauge("playersOnline", clients::size);
+        metrics.gauge("waitingPlayers", this::getWaitingPlayerCount);
+        metrics.gauge("activeMatches", () -> matchesStarted.get() - matchesFinished.get());
+        metrics.gauge("outboundQueuedBytes", outboundStats::getQueuedBytes);
+        metrics.gauge("outboundDroppedMessages", outboundStats::getDroppedMessages);
+        metrics.gauge("slowConsumersDisconnected", outboundStats::getSlowConsumers);
+        metrics.gauge("pendingTimeouts", timers::getPending);
+        if (scoreStore instanceof JournaledScoreStore) {
+            ScoreWriter writer = ((JournaledScoreStore) scoreStore).getWriter();
+            metrics.gauge("scoreUpdatesPending", writer::getPendingUpdates);
+            metrics.gauge("scoreDurabilityLagMillis", writer::getDurabilityLagMillis); // Oldest unsaved change
+            metrics.gauge("scoreLastCommitLagMillis", writer::getLastCommitLagMillis);
+        }
     }
 
     public void start(int port) {
         try {
+            if (!loadScores()) { // Already loaded when started from main()
+                return;
+            }
             try {
-                serverSocket = new ServerSocket(port);
+                if (config.getTransport() == ServerConfig.Transport.NIO) {
+                    nioTransport = new NioTransport(this, config.getEventLoops());
+                    nioTransport.bind(port);
+                } else {
+                    serverSocket = new ServerSocket(port);
+                    if (config.getTransport() == ServerConfig.Transport.VIRTUAL) {
+                        clientExecutor = newVirtualThreadExecutor();
+                    }
+                    if (clientExecutor == null) {
+                        writerPool = newWriterPool();
+                    }
+                }
             } catch (BindException e) {
                 System.err.println("Port " + port + " is already in use. Try using a different port.");
-                System.err.println("Usage: java -cp bin src.server.RPSServer [port]");
+                System.err.println(ServerConfig.usage());
                 return;
             }
 
-            System.out.println("RPS Server started on port " + port);
+            System.out.println("RPS Server started on port " + port + " (" + describeTransport() + ")");
+            startScheduler();
+            startMetrics(port);
 
             // Start heartbeat broadcasting
-            heartbeatBroadcaster = new HeartbeatBroadcaster(port);
-            new Thread(heartbeatBroadcaster).start();
-            System.out.println("Server discovery heartbeat started on port " + HEARTBEAT_PORT);
+            if (config.getDiscovery() != ServerConfig.Discovery.OFF) {
+                heartbeatBroadcaster = new HeartbeatBroadcaster(port, config.getDiscovery());
+                try {
+                    heartbeatBroadcaster.start();
+                    System.out.println("Server discovery heartbeat started on port " + HEARTBEAT_PORT);
+                } catch (IOException e) {
+                    // Clients can still connect by address
+                    System.err.println("Could not start discovery heartbeat: " + e.getMessage());
+                }
+            }
+
+            if (nioTransport != null) {
+                nioTransport.run();
+                return;
+            }
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
+                if (!admit(clientSocket)) {
+                    continue;
+                }
                 System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
 
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                new Thread(clientHandler).start();
+                ClientHandler handler = new ClientHandler(clientSocket, this);
+                handler.setAdmittedFrom(clientSocket.getInetAddress());
+                startClientThread(handler);
             }
         } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
-            e.printStackTrace();
+            // Closing the listening socket in stop() also ends up here
+            if (!stopped.get()) {
+                System.err.println("Server error: " + e.getMessage());
+                e.printStackTrace();
+            }
         } finally {
             stop();
         }
     }
 
-    public void stop() {
+    private String describeTransport() {
+        if (config.getTransport() == ServerConfig.Transport.NIO) {
+            return "NIO, " + config.getEventLoops() + " event loops";
+        }
+        if (clientExecutor != null) {
+            return "virtual thread per client";
+        }
+        return "thread per client";
+    }
+
+    // Runs a client connection's reader. Virtual threads when enabled,
+    // platform threads otherwise.
+    void startClientThread(Runnable task) {
+        if (clientExecutor != null) {
+            clientExecutor.execute(task);
+        } else {
+            new Thread(task).start();
+        }
+    }
+
+    // Where blocking connections write their queued output. Platform threads
+    // are shared: one is busy per connection that is being written to right
+    // now, and idle ones go away, so the thread transport needs about one
+    // thread per client rather than two.
+    Executor getWriters() {
+        return clientExecutor != null ? clientExecutor : writerPool;
+    }
+
+    private static ExecutorService newWriterPool() {
+        AtomicInteger threads = new AtomicInteger();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, WRITER_IDLE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), task -> {
+                    Thread thread = new Thread(task, "rps-writer-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    OutboundBuffer newOutboundBuffer() {
+        return new OutboundBuffer(outboundStats, config.getMaxOutboundBytes(), config.getMaxDroppedMessages());
+    }
+
+    CommandRateLimiter newCommandRateLimiter() {
+        return new CommandRateLimiter(config.getCommandRate(), config.getExpensiveCommandRate(), commandsThrottled,
+                floodDisconnects);
+    }
+
+    OutboundStats getOutboundStats() {
+        return outboundStats;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    // Accept thread, before anything is set up for the connection. A client
+    // over a connection limit gets one line saying why and is closed at once.
+    boolean admit(Socket socket) {
+        InetAddress address = socket.getInetAddress();
+        MessageCatalog.Constant rejection = admission.admit(address);
+        if (rejection == null) {
+            return true;
+        }
+        try {
+            // A fresh socket's send buffer is empty, so this does not block
+            socket.getOutputStream().write(rejection.lineBytes);
+        } catch (IOException e) {
+            // Gone already
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to clean up
+        }
+        return false;
+    }
+
+    void releaseAdmission(InetAddress address) {
+        admission.release(address);
+    }
+
+    // A client connection was accepted or has gone; called once each
+    void connectionOpened(ClientHandler connection) {
+        connections.increment();
+        keepalive.add(connection);
+    }
+
+    void connectionClosed(ClientHandler connection) {
+        keepalive.remove(connection);
+        disconnections.increment();
+    }
+
+    private void startScheduler() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "rps-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(keepalive::sweep, Keepalive.SWEEP_MILLIS, Keepalive.SWEEP_MILLIS,
+                TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(timers::advance, TIMER_TICK_MILLIS, TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // False when no admin token is configured, so admin commands stay locked
+    boolean isAdminToken(String token) {
+        String adminToken = config.getAdminToken();
+        return adminToken != null && token != null && MessageDigest.isEqual(
+                adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int getWaitingPlayerCount() {
+        gameLock.lock();
+        try {
+            return regularQueue.size() + coffeeBetQueue.size();
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    // Publishes the metrics over JMX, and to the metrics file if one is set
+    private void startMetrics(int port) {
+        try {
+            ObjectName name = new ObjectName("src.server:type=RPSServer,port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics.mbean(), name);
+            metricsName = name;
+        } catch (JMException e) {
+            System.err.println("Metrics not available over JMX: " + e.getMessage());
+        }
+
+        if (config.getMetricsFile() != null) {
+            long interval = config.getMetricsIntervalSeconds();
+            scheduler.scheduleWithFixedDelay(this::writeMetricsFile, interval, interval, TimeUnit.SECONDS);
+            System.out.println("Writing metrics to " + config.getMetricsFile() + " every " + interval + " s");
+        }
+    }
+
+    private void stopMetrics() {
+        if (scheduler != null && config.getMetricsFile() != null) {
+            writeMetricsFile(); // Final values
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // Already gone
+            }
+            metricsName = null;
+        }
+    }
+
+    // Written beside the target and moved over it, so readers never see half a report
+    private void writeMetricsFile() {
+        Path file = Paths.get(config.getMetricsFile());
+        Path temp = Paths.get(config.getMetricsFile() + ".tmp");
+        List<String> lines = new ArrayList<>();
+        lines.add("# RPS server metrics at " + new Date());
+        lines.addAll(metrics.report());
+        try {
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing metrics: " + e.getMessage());
+        }
+    }
+
+    // Looked up reflectively so the server still builds and runs on Java 8
+    private static ExecutorService newVirtualThreadExecutor() {
         try {
-            // Save scores before shutting down
-            saveScores();
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Virtual threads need Java 21 or newer. Using platform threads instead.");
+            return null;
+        }
+    }
 
+    public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        try {
             // Stop the heartbeat broadcaster if it's running
             if (heartbeatBroadcaster != null) {
                 heartbeatBroadcaster.stop();
             }
 
+            // Stop taking players, then end every session. Leaving a match
+            // still settles it, so this goes before the scores are closed.
+            if (nioTransport != null) {
+                nioTransport.stop();
+            }
+
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+
+            for (ClientHandler client : clients.values()) {
+                client.abortConnection();
+            }
+            awaitSessionsEnded();
+
+            if (clientExecutor != null) {
+                clientExecutor.shutdown();
+            }
+            if (writerPool != null) {
+                writerPool.shutdown();
+            }
+
+            // No timer fires after this, so nothing changes a score any more
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Make every score change durable before shutting down
+            scoreStore.close();
+
+            stopMetrics();
+            System.out.println("Outbound: " + outboundStats);
         }
     }
 
-    public synchronized boolean registerClient(String nickname, ClientHandler handler) {
+    // Until every player's session has cleaned up after itself, or
+    // SHUTDOWN_WAIT_MILLIS have gone by
+    private void awaitSessionsEnded() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_WAIT_MILLIS);
+        while (!clients.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        if (!clients.isEmpty()) {
+            System.err.println(clients.size() + " sessions still open at shutdown");
+        }
+    }
+
+    public boolean registerClient(String nickname, ClientHandler handler) {
         if (nickname == null) {
             return false;
         }
-        if (clients.containsKey(nickname)) {
+        if (clients.putIfAbsent(nickname, handler) != null) {
             return false;
         }
-        clients.put(nickname, handler);
-        scores.putIfAbsent(nickname, 0);
+        if (scoreStore.addIfAbsent(nickname)) {
+            leaderboard.changed(nickname, -1, 0);
+        }
+        presence.joined(nickname);
         return true;
     }
 
-    public synchronized void removeClient(String nickname) {
-        ClientHandler client = clients.remove(nickname);
-        if (client != null) {
-            ClientHandler opponent = matches.remove(client);
-            if (opponent != null) {
-                matches.remove(opponent);
-                opponent.sendMessage("***Your opponent has disconnected***");
+    public void removeClient(String nickname) {
+        gameLock.lock();
+        try {
+            ClientHandler client = clients.get(nickname);
+            if (client != null) {
+                // Leave before the nickname is free again, so a new player
+                // taking it always shows up after this one has gone
+                presence.unwatch(client);
+                presence.left(nickname);
+                clients.remove(nickname);
+
+                stopWaiting(client);
+
+                // Cancel everything this player sent or received
+                for (InvitationRegistry.Invitation invitation : invitations.removeAll(client)) {
+                    if (invitation.inviter == client) {
+                        invitation.invitee.sendMessage("***The invitation from " + nickname + " was cancelled***");
+                    } else {
+                        invitation.inviter.sendMessage(
+                                "***Your invitation to " + nickname + " was cancelled, they left the server***");
+                    }
+                }
+
+                Match match = client.getMatch();
+                if (match != null && match.abandon()) {
+                    matchesFinished.increment();
+                    ClientHandler opponent = match.getOpponent(client);
+                    client.setMatch(null);
+                    opponent.setMatch(null);
+                    presence.setInGame(opponent.getNickname(), false);
+                    opponent.sendMatchEnd(0);
+                }
             }
-            // Save scores when a client disconnects
-            saveScores();
+        } finally {
+            gameLock.unlock();
         }
     }
 
-    public synchronized String getPlayers() {
-        return String.join(", ", clients.keySet());
+    public String getPlayers() {
+        return presence.roster();
     }
 
-    public synchronized int getScore(String nickname) {
-        return scores.getOrDefault(nickname, 0);
+    Presence getPresence() {
+        return presence;
     }
 
-    public synchronized void setScore(String nickname, int score) {
-        scores.put(nickname, score);
-        // Save scores whenever they are updated
-        saveScores();
+    // False if the score store can never hold this nickname
+    public boolean canStoreScore(String nickname) {
+        return scoreStore.canStore(nickname);
     }
 
-    private synchronized void incrementScore(String nickname) {
-        int newScore = scores.getOrDefault(nickname, 0) + 1;
-        scores.put(nickname, newScore);
+    public int getScore(String nickname) {
+        return scoreStore.get(nickname);
     }
 
-    public synchronized void playGame(ClientHandler player) {
-        // If player is already in a match, don't queue them again
-        if (matches.containsKey(player)) {
-            player.sendMessage("***You are already in a game***");
-            return;
+    public void setScore(String nickname, int score) {
+        int oldScore = scoreStore.get(nickname);
+        scoreStore.set(nickname, score);
+        leaderboard.changed(nickname, oldScore, score);
+    }
+
+    // Only called under the player's match lock, so a player's increments
+    // reach the leaderboard in order
+    private void incrementScore(String nickname) {
+        int score = scoreStore.increment(nickname);
+        if (score < 0) {
+            return; // Refused: the store is closed
         }
+        leaderboard.changed(nickname, score - 1, score);
+    }
 
-        // Look for another player waiting for a match
-        for (ClientHandler client : clients.values()) {
-            if (client != player && !matches.containsKey(client) && client.isWaitingForMatch()) {
+    Leaderboard getLeaderboard() {
+        return leaderboard;
+    }
+
+    public void playGame(ClientHandler player) {
+        gameLock.lock();
+        try {
+            // If player is already in a match, don't queue them again
+            if (player.isInMatch()) {
+                player.sendMessage("***You are already in a game***");
+                return;
+            }
+
+            // Look for the player who has been waiting the longest
+            ClientHandler client = nextWaitingPlayer(player);
+            if (client != null) {
                 // Check if the waiting player has coffee bet mode enabled
-                if (coffeeBetMode.getOrDefault(client, false)) {
+                if (client.isCoffeeBet()) {
                     // Ask this player if they want to play a coffee bet game
-                    player.sendMessage("***Player " + client.getNickname()
-                            + " wants to play a Coffee Bet game (loser buys coffee)***");
-                    player.sendMessage("***Do you accept the Coffee Bet challenge? (y/n)***");
-                    pendingCoffeeBetRequests.put(player, client);
+                    player.sendInvitation(client, true, false);
+                    addInvitation(client, player, true, false);
                     return;
                 }
 
@@ -166,33 +547,35 @@ public class RPSServer {
                 startMatch(player, client);
                 return;
             }
-        }
 
-        // No match found, put player in waiting state
-        player.setWaitingForMatch(true);
-        player.sendMessage("***Waiting for another player to join***");
+            // No match found, put player in waiting state
+            startWaiting(player);
+            player.sendMessage("***Waiting for another player to join***");
+        } finally {
+            gameLock.unlock();
+        }
     }
 
-    public synchronized void playCoffeeBetGame(ClientHandler player) {
-        // If player is already in a match, don't queue them again
-        if (matches.containsKey(player)) {
-            player.sendMessage("***You are already in a game***");
-            return;
-        }
+    public void playCoffeeBetGame(ClientHandler player) {
+        gameLock.lock();
+        try {
+            // If player is already in a match, don't queue them again
+            if (player.isInMatch()) {
+                player.sendMessage("***You are already in a game***");
+                return;
+            }
 
-        // Set coffee bet mode for this player
-        coffeeBetMode.put(player, true);
-        player.sendMessage("***Coffee Bet Mode enabled! Winner gets a coffee!***");
+            // Set coffee bet mode for this player
+            player.setCoffeeBet(true);
+            player.sendMessage("***Coffee Bet Mode enabled! Winner gets a coffee!***");
 
-        // Look for another player waiting for a match
-        for (ClientHandler client : clients.values()) {
-            if (client != player && !matches.containsKey(client) && client.isWaitingForMatch()) {
+            // Look for the player who has been waiting the longest
+            ClientHandler client = nextWaitingPlayer(player);
+            if (client != null) {
                 // If the other player doesn't have coffee bet mode, ask them
-                if (!coffeeBetMode.getOrDefault(client, false)) {
-                    client.sendMessage("***Player " + player.getNickname()
-                            + " wants to play a Coffee Bet game (loser buys coffee)***");
-                    client.sendMessage("***Do you accept the Coffee Bet challenge? (y/n)***");
-                    pendingCoffeeBetRequests.put(client, player);
+                if (!client.isCoffeeBet()) {
+                    client.sendInvitation(player, true, false);
+                    addInvitation(player, client, true, false);
                     return;
                 }
 
@@ -200,88 +583,193 @@ public class RPSServer {
                 startMatch(player, client);
                 return;
             }
-        }
 
-        // No match found, put player in waiting state
-        player.setWaitingForMatch(true);
-        player.sendMessage("***Waiting for another player to join with Coffee Bet Mode***");
+            // No match found, put player in waiting state
+            startWaiting(player);
+            player.sendMessage("***Waiting for another player to join with Coffee Bet Mode***");
+        } finally {
+            gameLock.unlock();
+        }
     }
 
-    public synchronized void invitePlayer(ClientHandler inviter, String targetNickname) {
-        // Check if inviter is already in a match
-        if (matches.containsKey(inviter)) {
-            inviter.sendMessage("***You are already in a game***");
-            return;
+    // Caller holds gameLock. Oldest waiting player across both queues, so
+    // regular and coffee bet players are served first come, first served.
+    private ClientHandler nextWaitingPlayer(ClientHandler player) {
+        ClientHandler regular = regularQueue.peekOther(player);
+        ClientHandler coffee = coffeeBetQueue.peekOther(player);
+        if (regular == null) {
+            return coffee;
         }
-
-        // Check if target exists
-        if (!clients.containsKey(targetNickname)) {
-            inviter.sendMessage("***Player '" + targetNickname + "' not found***");
-            return;
+        if (coffee == null) {
+            return regular;
         }
+        return regular.getWaitTicket() < coffee.getWaitTicket() ? regular : coffee;
+    }
 
-        // Don't allow self-invites
-        if (inviter.getNickname().equals(targetNickname)) {
-            inviter.sendMessage("***You cannot invite yourself***");
-            return;
+    // Caller holds gameLock
+    private void startWaiting(ClientHandler player) {
+        WaitingQueue queue = player.isCoffeeBet() ? coffeeBetQueue : regularQueue;
+        if (!queue.contains(player)) {
+            stopWaiting(player);
+            player.setWaitTicket(nextWaitTicket++);
+            player.setWaitStartedAt(System.nanoTime());
+            queue.add(player);
         }
+        player.setWaitingForMatch(true);
+    }
 
-        ClientHandler target = clients.get(targetNickname);
+    // Caller holds gameLock
+    private void stopWaiting(ClientHandler player) {
+        regularQueue.remove(player);
+        coffeeBetQueue.remove(player);
+        player.setWaitingForMatch(false);
+    }
 
-        // Check if target is already in a match
-        if (matches.containsKey(target)) {
-            inviter.sendMessage(
-                    "***Player '" + targetNickname + "' is currently in a game. Your invitation will be queued.***");
+    public void invitePlayer(ClientHandler inviter, String targetNickname) {
+        gameLock.lock();
+        try {
+            // Check if inviter is already in a match
+            if (inviter.isInMatch()) {
+                inviter.sendMessage("***You are already in a game***");
+                return;
+            }
 
-            // Queue the invitation
-            queuedInvitations.computeIfAbsent(target, k -> new ArrayList<>()).add(inviter);
-            return;
-        }
+            // Check if target exists
+            if (!clients.containsKey(targetNickname)) {
+                inviter.sendMessage("***Player '" + targetNickname + "' not found***");
+                return;
+            }
+
+            // Don't allow self-invites
+            if (inviter.getNickname().equals(targetNickname)) {
+                inviter.sendMessage("***You cannot invite yourself***");
+                return;
+            }
 
-        // Check if inviter has coffee bet mode enabled
-        boolean isCoffeeBet = coffeeBetMode.getOrDefault(inviter, false);
+            ClientHandler target = clients.get(targetNickname);
 
-        // Send invitation
-        inviter.sendMessage("***Invitation sent to " + targetNickname + "***");
+            // Check if target is already in a match
+            if (target.isInMatch()) {
+                inviter.sendMessage(
+                        "***Player '" + targetNickname + "' is currently in a game. Your invitation will be queued.***");
 
-        if (isCoffeeBet) {
-            // Send a coffee bet invitation instead of a regular one
-            target.sendMessage("***Player " + inviter.getNickname() +
-                    " wants to play a Coffee Bet game (loser buys coffee)***");
-            target.sendMessage("***Do you accept the Coffee Bet challenge? (y/n)***");
-            pendingCoffeeBetRequests.put(target, inviter);
-        } else {
-            // Regular invitation
-            target.sendMessage("***You have an invitation from " + inviter.getNickname() + ", play game? (y/n)***");
-            // Record the pending invitation
-            pendingInvitations.put(inviter, target);
+                // Queue the invitation
+                addInvitation(inviter, target, inviter.isCoffeeBet(), true);
+                return;
+            }
+
+            // Check if inviter has coffee bet mode enabled
+            boolean isCoffeeBet = inviter.isCoffeeBet();
+
+            // Send invitation
+            inviter.sendMessage("***Invitation sent to " + targetNickname + "***");
+
+            // A coffee bet invitation if the inviter asked for one
+            target.sendInvitation(inviter, isCoffeeBet, false);
+            addInvitation(inviter, target, isCoffeeBet, false);
+        } finally {
+            gameLock.unlock();
         }
     }
 
-    public synchronized void handleInvitationResponse(ClientHandler responder, boolean accepted) {
-        // Find who invited this player
-        ClientHandler inviter = null;
-        for (Map.Entry<ClientHandler, ClientHandler> entry : pendingInvitations.entrySet()) {
-            if (entry.getValue() == responder) {
-                inviter = entry.getKey();
-                break;
+    // Caller holds gameLock
+    private void addInvitation(ClientHandler inviter, ClientHandler invitee, boolean coffeeBet, boolean queued) {
+        InvitationRegistry.Invitation invitation = invitations.add(inviter, invitee, coffeeBet, queued);
+        invitationsSent.increment();
+        expireLater(invitation);
+    }
+
+    // Caller holds gameLock. Restarts the clock if it was already running
+    private void expireLater(InvitationRegistry.Invitation invitation) {
+        int ttl = config.getInvitationTtlSeconds();
+        if (ttl > 0) {
+            if (invitation.expiry != null) {
+                invitation.expiry.cancel();
             }
+            invitation.expiry = timers.schedule(() -> invitationExpired(invitation), ttl, TimeUnit.SECONDS);
         }
+    }
 
-        if (inviter == null) {
-            responder.sendMessage("***You don't have any pending invitations***");
-            return;
+    // Scheduler thread
+    private void invitationExpired(InvitationRegistry.Invitation invitation) {
+        gameLock.lock();
+        try {
+            // Answered, replaced or dropped just before the timeout fired
+            if (invitations.get(invitation.invitee, invitation.inviter) != invitation) {
+                return;
+            }
+            invitations.remove(invitation);
+            invitationsExpired.increment();
+
+            String kind = invitation.coffeeBet ? "coffee bet challenge" : "invitation";
+            invitation.inviter.sendMessage(
+                    "***Your " + kind + " to " + invitation.invitee.getNickname() + " has expired***");
+            if (!invitation.queued) {
+                invitation.invitee.sendMessage(
+                        "***The " + kind + " from " + invitation.inviter.getNickname() + " has expired***");
+            }
+        } finally {
+            gameLock.unlock();
         }
+    }
+
+    // Answers the oldest pending invitation or coffee bet challenge
+    public void handleInvitationResponse(ClientHandler responder, boolean accepted) {
+        handleInvitationResponse(responder, accepted, null);
+    }
+
+    // Answers the invitation from the given player, or the oldest one if null
+    public void handleInvitationResponse(ClientHandler responder, boolean accepted, String inviterNickname) {
+        gameLock.lock();
+        try {
+            // Find who invited this player
+            InvitationRegistry.Invitation invitation;
+            if (inviterNickname == null) {
+                invitation = invitations.oldestPending(responder);
+            } else {
+                ClientHandler inviter = clients.get(inviterNickname);
+                invitation = inviter == null ? null : invitations.get(responder, inviter);
+                if (invitation != null && invitation.queued) {
+                    invitation = null;
+                }
+            }
+
+            if (invitation == null) {
+                if (inviterNickname == null) {
+                    responder.sendMessage("***You don't have any pending invitations***");
+                } else {
+                    responder.sendMessage("***You don't have a pending invitation from " + inviterNickname + "***");
+                }
+                return;
+            }
 
-        // Remove the pending invitation
-        pendingInvitations.remove(inviter);
+            // Remove the pending invitation
+            invitations.remove(invitation);
 
+            if (invitation.coffeeBet) {
+                respondToCoffeeBet(invitation.inviter, responder, accepted);
+            } else {
+                respondToInvitation(invitation.inviter, responder, accepted);
+            }
+
+            int remaining = invitations.countPending(responder);
+            if (remaining > 0 && !responder.isInMatch()) {
+                responder.sendMessage("***You have " + remaining
+                        + " more pending invitation(s). Answer with y/n, or 'y NICKNAME' / 'n NICKNAME'***");
+            }
+        } finally {
+            gameLock.unlock();
+        }
+    }
+
+    // Caller holds gameLock
+    private void respondToInvitation(ClientHandler inviter, ClientHandler responder, boolean accepted) {
         // Both players must not be in other matches
-        if (matches.containsKey(inviter) || matches.containsKey(responder)) {
-            if (!matches.containsKey(responder)) {
+        if (inviter.isInMatch() || responder.isInMatch()) {
+            if (!responder.isInMatch()) {
                 responder.sendMessage("***Inviter is already in another game***");
             }
-            if (!matches.containsKey(inviter)) {
+            if (!inviter.isInMatch()) {
                 inviter.sendMessage("***Invited player is already in another game***");
             }
             return;
@@ -298,241 +786,265 @@ public class RPSServer {
         }
     }
 
-    private synchronized void checkQueuedInvitations(ClientHandler player) {
-        List<ClientHandler> inviters = queuedInvitations.get(player);
-        if (inviters != null && !inviters.isEmpty()) {
-            // Get the first invitation in the queue
-            ClientHandler inviter = inviters.remove(0);
-
-            // Update the queue
-            if (inviters.isEmpty()) {
-                queuedInvitations.remove(player);
-            } else {
-                queuedInvitations.put(player, inviters);
-            }
+    // Caller holds gameLock
+    private void checkQueuedInvitations(ClientHandler player) {
+        for (InvitationRegistry.Invitation invitation : invitations.queuedFor(player)) {
+            ClientHandler inviter = invitation.inviter;
 
             // Check if inviter is still available
-            if (!matches.containsKey(inviter)) {
-                // Notify about the queued invitation
-                player.sendMessage(
-                        "***You have a queued invitation from " + inviter.getNickname() + ", play game? (y/n)***");
-                inviter.sendMessage("***Your queued invitation to " + player.getNickname() + " is now active***");
-
-                // Record the pending invitation
-                pendingInvitations.put(inviter, player);
+            if (inviter.isInMatch()) {
+                invitations.remove(invitation);
+                continue;
             }
+
+            // Notify about the queued invitation, which gets a full TTL from now
+            invitation.queued = false;
+            expireLater(invitation);
+            player.sendInvitation(inviter, invitation.coffeeBet, true);
+            inviter.sendMessage("***Your queued invitation to " + player.getNickname() + " is now active***");
         }
     }
 
-    private synchronized void startMatch(ClientHandler player1, ClientHandler player2) {
-        matches.put(player1, player2);
-        matches.put(player2, player1);
-
-        moves.remove(player1);
-        moves.remove(player2);
-
-        // Reset round wins for both players
-        roundWins.put(player1, 0);
-        roundWins.put(player2, 0);
-
+    // Caller holds gameLock
+    private void startMatch(ClientHandler player1, ClientHandler player2) {
         // Check if this is a coffee bet match
-        boolean isCoffeeBet = coffeeBetMode.getOrDefault(player1, false) &&
-                coffeeBetMode.getOrDefault(player2, false);
+        boolean isCoffeeBet = player1.isCoffeeBet() && player2.isCoffeeBet();
 
+        Match match = new Match(player1, player2, isCoffeeBet);
+        matchesStarted.increment();
         if (isCoffeeBet) {
-            player1.sendMessage("***Coffee Bet Mode enabled!***");
-            player2.sendMessage("***Coffee Bet Mode enabled!***");
+            coffeeBets.increment();
+        }
+        long now = System.nanoTime();
+        if (player1.isWaitingForMatch()) {
+            matchmakingWaits.record(now - player1.getWaitStartedAt());
+        }
+        if (player2.isWaitingForMatch()) {
+            matchmakingWaits.record(now - player2.getWaitStartedAt());
+        }
+        player1.setMatch(match);
+        player2.setMatch(match);
+        presence.setInGame(player1.getNickname(), true);
+        presence.setInGame(player2.getNickname(), true);
+
+        player1.sendMatchStart(player2, WINS_NEEDED, isCoffeeBet);
+        player2.sendMatchStart(player1, WINS_NEEDED, isCoffeeBet);
+        match.lock();
+        try {
+            startMoveClock(match);
+        } finally {
+            match.unlock();
         }
 
-        player1.sendMessage("***You are now playing with " + player2.getNickname() + "***");
-        player1.sendMessage("***First to win " + WINS_NEEDED + " rounds wins the match!***");
-        player1.sendMessage("***Choose your move: R (Rock), P (Paper), or S (Scissors)***");
-
-        player2.sendMessage("***You are now playing with " + player1.getNickname() + "***");
-        player2.sendMessage("***First to win " + WINS_NEEDED + " rounds wins the match!***");
-        player2.sendMessage("***Choose your move: R (Rock), P (Paper), or S (Scissors)***");
+        stopWaiting(player2);
+        stopWaiting(player1);
+    }
 
-        player2.setWaitingForMatch(false);
-        player1.setWaitingForMatch(false);
+    public void handleMove(ClientHandler player, byte move) {
+        long start = System.nanoTime();
+        try {
+            playMove(player, move);
+        } finally {
+            moveTimes.record(System.nanoTime() - start);
+        }
     }
 
-    public synchronized void handleMove(ClientHandler player, String move) {
-        ClientHandler opponent = matches.get(player);
-        if (opponent == null) {
-            player.sendMessage("***You are not in a game***");
+    // Only takes the match's own lock, so rounds in other matches are not blocked
+    private void playMove(ClientHandler player, byte move) {
+        Match match = player.getMatch();
+        if (match == null) {
+            player.send(MessageCatalog.NOT_IN_GAME);
             return;
         }
 
-        moves.put(player, move);
-
-        // If both players have made moves, determine the winner
-        if (moves.containsKey(opponent)) {
-            String playerMove = moves.get(player);
-            String opponentMove = moves.get(opponent);
-
-            player.sendMessage("***Your move: " + playerMove + ", Opponent's move: " + opponentMove + "***");
-            opponent.sendMessage("***Your move: " + opponentMove + ", Opponent's move: " + playerMove + "***");
-
-            int result = determineWinner(playerMove, opponentMove);
-
-            if (result > 0) {
-                // Player wins the round
-                int playerWins = roundWins.getOrDefault(player, 0) + 1;
-                roundWins.put(player, playerWins);
-
-                // Update overall score
-                incrementScore(player.getNickname());
+        boolean matchOver = false;
+        match.lock();
+        try {
+            if (match.isFinished()) {
+                player.send(MessageCatalog.NOT_IN_GAME);
+                return;
+            }
 
-                player.sendMessage("***You won this round! (Round wins: " + playerWins + "/" + WINS_NEEDED + ")***");
-                opponent.sendMessage("***You lost this round! (Round wins: " + roundWins.getOrDefault(opponent, 0) + "/"
-                        + WINS_NEEDED + ")***");
+            ClientHandler opponent = match.getOpponent(player);
+            match.setMove(player, move);
 
-                // Check if player has won the match
-                if (playerWins >= WINS_NEEDED) {
-                    player.sendMessage("***Congratulations! You've won the match!***");
-                    opponent.sendMessage("***You've lost the match. Better luck next time!***");
+            // If both players have made moves, determine the winner
+            if (match.getMove(opponent) != Moves.NONE) {
+                byte playerMove = match.getMove(player);
+                byte opponentMove = match.getMove(opponent);
 
-                    // Save scores when a match is completed
-                    saveScores();
+                int result = Moves.outcome(playerMove, opponentMove);
+                rounds.increment();
 
-                    // End the match
-                    endMatch(player, opponent);
-                } else {
-                    // Continue the match - prompt for next round
-                    promptNextRound(player, opponent);
+                // Update overall score of the round winner
+                if (result > 0) {
+                    match.addWin(player);
+                    incrementScore(player.getNickname());
+                } else if (result < 0) {
+                    match.addWin(opponent);
+                    incrementScore(opponent.getNickname());
                 }
-            } else if (result < 0) {
-                // Opponent wins the round
-                int opponentWins = roundWins.getOrDefault(opponent, 0) + 1;
-                roundWins.put(opponent, opponentWins);
-
-                // Update overall score
-                incrementScore(opponent.getNickname());
-
-                opponent.sendMessage(
-                        "***You won this round! (Round wins: " + opponentWins + "/" + WINS_NEEDED + ")***");
-                player.sendMessage("***You lost this round! (Round wins: " + roundWins.getOrDefault(player, 0) + "/"
-                        + WINS_NEEDED + ")***");
 
-                // Check if opponent has won the match
-                if (opponentWins >= WINS_NEEDED) {
-                    opponent.sendMessage("***Congratulations! You've won the match!***");
-                    player.sendMessage("***You've lost the match. Better luck next time!***");
+                int playerWins = match.getWins(player);
+                int opponentWins = match.getWins(opponent);
+                player.sendRound(playerMove, opponentMove, result, playerWins, opponentWins, WINS_NEEDED);
+                opponent.sendRound(opponentMove, playerMove, -result, opponentWins, playerWins, WINS_NEEDED);
 
-                    // Save scores when a match is completed
-                    saveScores();
-
-                    // End the match
-                    endMatch(player, opponent);
-                } else {
-                    // Continue the match - prompt for next round
-                    promptNextRound(player, opponent);
-                }
+                matchOver = endRound(match, player, opponent);
             } else {
-                // Draw
-                player.sendMessage("***It's a draw for this round!***");
-                opponent.sendMessage("***It's a draw for this round!***");
-
-                // Prompt for next round
-                promptNextRound(player, opponent);
+                player.sendWaitingForMove();
             }
+        } finally {
+            match.unlock();
+        }
 
-            // Clear the moves for the next round
-            moves.remove(player);
-            moves.remove(opponent);
+        if (matchOver) {
+            // End the match
+            endMatch(match);
+        }
+    }
+
+    // Caller holds the match lock; the round's result has been sent. Returns
+    // true if the match is over, otherwise the next round starts.
+    private boolean endRound(Match match, ClientHandler player, ClientHandler opponent) {
+        int playerWins = match.getWins(player);
+        int opponentWins = match.getWins(opponent);
+        boolean matchOver = false;
+
+        // Check if either player has won the match
+        if (playerWins >= WINS_NEEDED || opponentWins >= WINS_NEEDED) {
+            int outcome = playerWins >= WINS_NEEDED ? 1 : -1;
+            player.sendMatchEnd(outcome);
+            opponent.sendMatchEnd(-outcome);
+            match.finish();
+            matchesFinished.increment();
+            matchOver = true;
         } else {
-            player.sendMessage("***Waiting for opponent's move***");
+            // Continue the match - prompt for next round
+            promptNextRound(player, opponent);
+        }
+
+        // Clear the moves for the next round
+        match.clearMoves();
+        if (!matchOver) {
+            startMoveClock(match);
         }
+        return matchOver;
     }
 
-    private void promptNextRound(ClientHandler player, ClientHandler opponent) {
-        player.sendMessage("***Next round! Choose your move: R (Rock), P (Paper), or S (Scissors)***");
-        opponent.sendMessage("***Next round! Choose your move: R (Rock), P (Paper), or S (Scissors)***");
+    // Caller holds the match lock
+    private void startMoveClock(Match match) {
+        int timeout = config.getMoveTimeoutSeconds();
+        if (timeout > 0) {
+            int round = match.getRound();
+            match.setMoveDeadline(timers.schedule(() -> moveTimedOut(match, round), timeout, TimeUnit.SECONDS));
+        }
     }
 
-    private void endMatch(ClientHandler player, ClientHandler opponent) {
-        // Reset match data
-        matches.remove(player);
-        matches.remove(opponent);
-        roundWins.remove(player);
-        roundWins.remove(opponent);
-        moves.remove(player);
-        moves.remove(opponent);
+    // Scheduler thread. A player who has not moved forfeits the round; if
+    // neither has, nobody is playing and the match is called off
+    private void moveTimedOut(Match match, int round) {
+        boolean matchOver;
+        match.lock();
+        try {
+            // Decided just before the timeout fired
+            if (match.isFinished() || match.getRound() != round) {
+                return;
+            }
 
-        // Reset coffee bet mode
-        coffeeBetMode.remove(player);
-        coffeeBetMode.remove(opponent);
+            ClientHandler player1 = match.getPlayer1();
+            ClientHandler player2 = match.getPlayer2();
+            boolean moved1 = match.getMove(player1) != Moves.NONE;
+            boolean moved2 = match.getMove(player2) != Moves.NONE;
+            if (!moved1 && !moved2) {
+                player1.sendMatchCalledOff();
+                player2.sendMatchCalledOff();
+                match.finish();
+                matchesFinished.increment();
+                matchesCalledOff.increment();
+                matchOver = true;
+            } else {
+                ClientHandler winner = moved1 ? player1 : player2;
+                ClientHandler loser = match.getOpponent(winner);
+                match.addWin(winner);
+                incrementScore(winner.getNickname());
+                rounds.increment();
+                roundsForfeited.increment();
+                byte move = match.getMove(winner);
+                int winnerWins = match.getWins(winner);
+                int loserWins = match.getWins(loser);
+                winner.sendForfeit(move, Moves.NONE, true, winnerWins, loserWins, WINS_NEEDED);
+                loser.sendForfeit(Moves.NONE, move, false, loserWins, winnerWins, WINS_NEEDED);
+                matchOver = endRound(match, winner, loser);
+            }
+        } finally {
+            match.unlock();
+        }
 
-        // Let players know they can play again
-        player.sendMessage("***Your overall score is " + scores.getOrDefault(player.getNickname(), 0) + "***");
-        opponent.sendMessage("***Your overall score is " + scores.getOrDefault(opponent.getNickname(), 0) + "***");
-        player.sendMessage("***Type 'play' to start a new game***");
-        opponent.sendMessage("***Type 'play' to start a new game***");
+        if (matchOver) {
+            endMatch(match);
+        }
+    }
 
-        // Check if there are queued invitations for either player
-        checkQueuedInvitations(player);
-        checkQueuedInvitations(opponent);
+    private void promptNextRound(ClientHandler player, ClientHandler opponent) {
+        player.sendNextRound();
+        opponent.sendNextRound();
     }
 
-    private int determineWinner(String playerMove, String opponentMove) {
-        if (playerMove.equalsIgnoreCase(opponentMove)) {
-            return 0; // Draw
-        }
+    // Returns both players to the lobby once their match has finished
+    private void endMatch(Match match) {
+        ClientHandler player = match.getPlayer1();
+        ClientHandler opponent = match.getPlayer2();
 
-        if (playerMove.equalsIgnoreCase("R") && opponentMove.equalsIgnoreCase("S") ||
-                playerMove.equalsIgnoreCase("P") && opponentMove.equalsIgnoreCase("R") ||
-                playerMove.equalsIgnoreCase("S") && opponentMove.equalsIgnoreCase("P")) {
-            return 1; // Player wins
-        } else {
-            return -1; // Opponent wins
-        }
-    }
-
-    // Load scores from file
-    private synchronized void loadScores() {
-        File file = new File(SCORES_FILE);
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                @SuppressWarnings("unchecked")
-                Map<String, Integer> loadedScores = (Map<String, Integer>) ois.readObject();
-                scores.clear();
-                scores.putAll(loadedScores);
-                System.out.println("Loaded " + scores.size() + " player scores from file.");
-            } catch (Exception e) {
-                System.err.println("Error loading scores: " + e.getMessage());
-                e.printStackTrace();
-            }
+        gameLock.lock();
+        try {
+            // Reset match data
+            player.setMatch(null);
+            opponent.setMatch(null);
+            presence.setInGame(player.getNickname(), false);
+            presence.setInGame(opponent.getNickname(), false);
+
+            // Reset coffee bet mode
+            player.setCoffeeBet(false);
+            opponent.setCoffeeBet(false);
+
+            // Let players know they can play again
+            player.sendScore(getScore(player.getNickname()), true);
+            opponent.sendScore(getScore(opponent.getNickname()), true);
+            player.send(MessageCatalog.TYPE_PLAY);
+            opponent.send(MessageCatalog.TYPE_PLAY);
+
+            // Check if there are queued invitations for either player
+            checkQueuedInvitations(player);
+            checkQueuedInvitations(opponent);
+        } finally {
+            gameLock.unlock();
         }
     }
 
-    // Save scores to file
-    private synchronized void saveScores() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(SCORES_FILE))) {
-            oos.writeObject(new HashMap<>(scores));
-            System.out.println("Saved " + scores.size() + " player scores to file.");
-        } catch (Exception e) {
-            System.err.println("Error saving scores: " + e.getMessage());
-            e.printStackTrace();
+    private boolean loadScores() {
+        if (scoresLoaded) {
+            return true;
         }
-    }
-
-    public synchronized void handleCoffeeBetResponse(ClientHandler responder, boolean accepted) {
-        // Find who requested the coffee bet
-        ClientHandler requester = pendingCoffeeBetRequests.get(responder);
-        if (requester == null) {
-            responder.sendMessage("***You don't have any pending coffee bet challenges***");
-            return;
+        try {
+            scoreStore.open();
+            scoreStore.forEach(leaderboard);
+            scoresLoaded = true;
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error loading scores: " + e.getMessage());
+            return false;
         }
+    }
 
-        // Remove the pending request
-        pendingCoffeeBetRequests.remove(responder);
-
+    // Caller holds gameLock
+    private void respondToCoffeeBet(ClientHandler requester, ClientHandler responder, boolean accepted) {
         // Both players must not be in other matches
-        if (matches.containsKey(requester) || matches.containsKey(responder)) {
-            if (!matches.containsKey(responder)) {
+        if (requester.isInMatch() || responder.isInMatch()) {
+            if (!responder.isInMatch()) {
                 responder.sendMessage("***Requester is already in another game***");
             }
-            if (!matches.containsKey(requester)) {
+            if (!requester.isInMatch()) {
                 requester.sendMessage("***Player is already in another game***");
             }
             return;
@@ -540,7 +1052,7 @@ public class RPSServer {
 
         if (accepted) {
             // Set coffee bet mode for the responder as well
-            coffeeBetMode.put(responder, true);
+            responder.setCoffeeBet(true);
 
             // Start the match with coffee bet mode
             requester.sendMessage("***" + responder.getNickname() + " accepted your coffee bet challenge!***");
@@ -554,221 +1066,210 @@ public class RPSServer {
             // Reset coffee bet mode for requester if they initiated specifically for this
             // challenge
             if (requester.isWaitingForMatch()) {
-                coffeeBetMode.remove(requester);
-                requester.setWaitingForMatch(false);
+                requester.setCoffeeBet(false);
+                stopWaiting(requester);
                 requester.sendMessage("***Coffee Bet Mode disabled***");
             }
         }
     }
 
-    public synchronized boolean hasPendingCoffeeBetRequest(ClientHandler client) {
-        return pendingCoffeeBetRequests.containsKey(client);
-    }
-
-    // Inner class for broadcasting server heartbeats
-    private class HeartbeatBroadcaster implements Runnable {
-        private volatile boolean running = true;
+    // Announces the server to clients looking for one on the local network:
+    // "RPS_SERVER:address:port" to HEARTBEAT_PORT every HEARTBEAT_INTERVAL, by
+    // broadcast on each IPv4 interface, to multicast groups, or both. Each
+    // interface announces its own address, of the family of where it is
+    // sent, so a client is told an address it can reach. Runs on the shared
+    // scheduler. The datagrams are built once and only rebuilt when a
+    // periodic look at the network interfaces finds them changed, or a send
+    // fails; a beat is otherwise just the sends.
+    private class HeartbeatBroadcaster {
         private final int serverPort;
-        private DatagramSocket socket;
-
-        public HeartbeatBroadcaster(int serverPort) {
+        private final ServerConfig.Discovery mode;
+        private MulticastSocket socket;
+        // Scheduler thread only
+        private List<Announcement> announcements = Collections.emptyList();
+        private Map<NetworkInterface, List<InterfaceAddress>> interfaces; // What announcements were built for
+        private long checkedAt; // System.nanoTime() of the last look at the interfaces
+        private boolean recheck = true;
+        private String lastError; // Reported once, not every beat
+
+        HeartbeatBroadcaster(int serverPort, ServerConfig.Discovery mode) {
             this.serverPort = serverPort;
+            this.mode = mode;
         }
 
-        @Override
-        public void run() {
-            try {
-                socket = new DatagramSocket();
-                socket.setBroadcast(true);
+        void start() throws IOException {
+            socket = new MulticastSocket();
+            socket.setBroadcast(true);
+            socket.setTimeToLive(MULTICAST_TTL);
 
-                while (running) {
-                    broadcastHeartbeat();
-                    Thread.sleep(HEARTBEAT_INTERVAL);
-                }
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Heartbeat broadcaster error: " + e.getMessage());
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            } finally {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
+            // A burst first, so clients already looking find a fresh server quickly
+            for (int i = 1; i <= config.getDiscoveryBurst(); i++) {
+                scheduler.schedule(this::beat, i * DISCOVERY_BURST_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            scheduler.scheduleAtFixedRate(this::beat, 0, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+
+        private void beat() {
+            long now = System.nanoTime();
+            if (recheck || now - checkedAt >= TimeUnit.MILLISECONDS.toNanos(INTERFACE_CHECK_INTERVAL)) {
+                checkedAt = now;
+                recheck = false;
+                refresh();
+            }
+            for (Announcement announcement : announcements) {
+                try {
+                    if (announcement.networkInterface != null) {
+                        socket.setNetworkInterface(announcement.networkInterface);
+                    }
+                    socket.send(announcement.packet);
+                } catch (IOException e) {
+                    // Interfaces may have changed under us; look again next beat
+                    recheck = true;
+                    reportError("Heartbeat to " + announcement + " failed: " + e.getMessage());
                 }
             }
         }
 
-        private void broadcastHeartbeat() throws IOException {
-            // Create a heartbeat message with server IP and port
-            InetAddress localAddress = getLocalAddress();
-            String message = "RPS_SERVER:" + localAddress.getHostAddress() + ":" + serverPort;
-            byte[] buffer = message.getBytes();
+        private void refresh() {
+            Map<NetworkInterface, List<InterfaceAddress>> current = upInterfaces();
+            if (current.equals(interfaces)) {
+                return;
+            }
+            interfaces = current;
+
+            List<Announcement> built = new ArrayList<>();
+            boolean broadcast = mode == ServerConfig.Discovery.BROADCAST || mode == ServerConfig.Discovery.BOTH;
+            boolean multicast = mode == ServerConfig.Discovery.MULTICAST || mode == ServerConfig.Discovery.BOTH;
+            for (Map.Entry<NetworkInterface, List<InterfaceAddress>> entry : current.entrySet()) {
+                if (broadcast) {
+                    // One per subnet, not per address on it
+                    Set<InetAddress> subnets = new HashSet<>();
+                    for (InterfaceAddress address : entry.getValue()) {
+                        if (address.getBroadcast() != null && subnets.add(address.getBroadcast())) {
+                            built.add(new Announcement(address.getAddress(), address.getBroadcast(), null));
+                        }
+                    }
+                }
+                if (multicast && supportsMulticast(entry.getKey())) {
+                    for (InetAddress group : config.getDiscoveryGroups()) {
+                        InetAddress local = addressFor(group, entry.getValue());
+                        if (local != null) {
+                            built.add(new Announcement(local, group, entry.getKey()));
+                        }
+                    }
+                }
+            }
+            if (current.isEmpty()) {
+                // Nothing but loopback: announce that, for clients on this host
+                InetAddress loopback = InetAddress.getLoopbackAddress();
+                if (broadcast) {
+                    built.add(new Announcement(loopback, LIMITED_BROADCAST.getAddress(), null));
+                }
+                if (multicast) {
+                    for (InetAddress group : config.getDiscoveryGroups()) {
+                        if (group.getClass() == loopback.getClass()) {
+                            built.add(new Announcement(loopback, group, null));
+                        }
+                    }
+                }
+            }
+            announcements = built;
+            lastError = null;
 
-            // Broadcast to the local network
-            InetAddress broadcastAddress = InetAddress.getByName("255.255.255.255");
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, broadcastAddress, HEARTBEAT_PORT);
-            socket.send(packet);
+            for (Announcement announcement : built) {
+                System.out.println("Announcing " + announcement);
+            }
+            if (built.isEmpty()) {
+                System.err.println("No network interface to announce the server on");
+            }
         }
 
-        private InetAddress getLocalAddress() {
+        // Addresses of each interface that is up, loopback excluded, in a
+        // stable order so two looks can be compared
+        private Map<NetworkInterface, List<InterfaceAddress>> upInterfaces() {
+            Map<NetworkInterface, List<InterfaceAddress>> up = new LinkedHashMap<>();
             try {
-                // Try to find a non-loopback address
                 Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
-                while (interfaces.hasMoreElements()) {
+                while (interfaces != null && interfaces.hasMoreElements()) {
                     NetworkInterface networkInterface = interfaces.nextElement();
-                    // Skip loopback and inactive interfaces
                     if (networkInterface.isLoopback() || !networkInterface.isUp()) {
                         continue;
                     }
-
-                    Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
-                    while (addresses.hasMoreElements()) {
-                        InetAddress addr = addresses.nextElement();
-                        // Prefer IPv4 addresses
-                        if (!addr.isLoopbackAddress() && addr instanceof Inet4Address) {
-                            return addr;
-                        }
+                    List<InterfaceAddress> addresses = networkInterface.getInterfaceAddresses();
+                    if (!addresses.isEmpty()) {
+                        up.put(networkInterface, new ArrayList<>(addresses));
                     }
                 }
-
-                // If no suitable address was found, use the default
-                return InetAddress.getLocalHost();
-            } catch (Exception e) {
-                System.err.println("Could not determine local address: " + e.getMessage());
-                // Fallback to a loopback address
-                try {
-                    return InetAddress.getByName("127.0.0.1");
-                } catch (UnknownHostException ex) {
-                    throw new RuntimeException("Could not create loopback address", ex);
-                }
+            } catch (SocketException e) {
+                reportError("Could not list network interfaces: " + e.getMessage());
             }
+            return up;
         }
 
-        public void stop() {
-            running = false;
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+        private boolean supportsMulticast(NetworkInterface networkInterface) {
+            try {
+                return networkInterface.supportsMulticast();
+            } catch (SocketException e) {
+                return false;
             }
         }
-    }
-}
-
-class ClientHandler implements Runnable {
-    private final Socket clientSocket;
-    private final RPSServer server;
-    private PrintWriter out;
-    private BufferedReader in;
-    private String nickname;
-    private boolean waitingForMatch = false;
 
-    public ClientHandler(Socket socket, RPSServer server) {
-        this.clientSocket = socket;
-        this.server = server;
-    }
-
-    public String getNickname() {
-        return nickname;
-    }
-
-    public boolean isWaitingForMatch() {
-        return waitingForMatch;
-    }
+        // The interface's address to announce to a group: same family, and
+        // for IPv6 a routable address over a link-local one
+        private InetAddress addressFor(InetAddress group, List<InterfaceAddress> addresses) {
+            InetAddress linkLocal = null;
+            for (InterfaceAddress address : addresses) {
+                InetAddress local = address.getAddress();
+                if (local.getClass() != group.getClass()) {
+                    continue;
+                }
+                if (!local.isLinkLocalAddress()) {
+                    return local;
+                }
+                if (linkLocal == null) {
+                    linkLocal = local;
+                }
+            }
+            return linkLocal;
+        }
 
-    public void setWaitingForMatch(boolean waiting) {
-        this.waitingForMatch = waiting;
-    }
+        private void reportError(String message) {
+            if (!message.equals(lastError)) {
+                lastError = message;
+                System.err.println(message);
+            }
+        }
 
-    public void sendMessage(String message) {
-        out.println(message);
-    }
+        void stop() {
+            if (socket != null) {
+                socket.close();
+            }
+        }
 
-    @Override
-    public void run() {
-        try {
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-
-            // Request nickname
-            out.println("***Choose a nickname***");
-            nickname = in.readLine();
-
-            // Register client
-            while (!server.registerClient(nickname, this)) {
-                out.println("***Nickname already taken. Choose another one***");
-                nickname = in.readLine();
-            }
-
-            out.println("***Welcome " + nickname
-                    + "! Type 'play' to start a game, 'score' to see your score, or 'players' to list online players***");
-            out.println("***When in a game, use: R (Rock), P (Paper), or S (Scissors) to make your move***");
-            out.println("***You can also invite a specific player with 'play NICKNAME'***");
-
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                if (inputLine.equalsIgnoreCase("play")) {
-                    server.playGame(this);
-                } else if (inputLine.equalsIgnoreCase("play coffee")) {
-                    server.playCoffeeBetGame(this);
-                } else if (inputLine.toLowerCase().startsWith("play ")) {
-                    // Handle targeted invitation (play NICKNAME)
-                    String targetInput = inputLine.substring(5).trim();
-
-                    // Check if this is a coffee bet invitation (play NICKNAME coffee)
-                    if (targetInput.toLowerCase().endsWith(" coffee")) {
-                        // Extract nickname without the "coffee" suffix
-                        String targetNickname = targetInput.substring(0, targetInput.lastIndexOf(" ")).trim();
-                        // Enable coffee bet mode
-                        server.playCoffeeBetGame(this);
-                        // Then send invitation
-                        server.invitePlayer(this, targetNickname);
-                    } else {
-                        // Regular invitation
-                        server.invitePlayer(this, targetInput);
-                    }
-                } else if (inputLine.equalsIgnoreCase("y") || inputLine.equalsIgnoreCase("yes")) {
-                    // Check if this is a response to a coffee bet challenge
-                    if (server.hasPendingCoffeeBetRequest(this)) {
-                        server.handleCoffeeBetResponse(this, true);
-                    } else {
-                        // Otherwise, it's a regular invitation response
-                        server.handleInvitationResponse(this, true);
-                    }
-                } else if (inputLine.equalsIgnoreCase("n") || inputLine.equalsIgnoreCase("no")) {
-                    // Check if this is a response to a coffee bet challenge
-                    if (server.hasPendingCoffeeBetRequest(this)) {
-                        server.handleCoffeeBetResponse(this, false);
-                    } else {
-                        // Otherwise, it's a regular invitation response
-                        server.handleInvitationResponse(this, false);
-                    }
-                } else if (inputLine.equalsIgnoreCase("score")) {
-                    int score = server.getScore(nickname);
-                    out.println("***Your score is " + score + "***");
-                } else if (inputLine.equalsIgnoreCase("players")) {
-                    String players = server.getPlayers();
-                    out.println("***Players online: " + players + "***");
-                } else if (inputLine.equalsIgnoreCase("R") ||
-                        inputLine.equalsIgnoreCase("P") ||
-                        inputLine.equalsIgnoreCase("S")) {
-                    server.handleMove(this, inputLine.toUpperCase());
-                } else {
-                    out.println(
-                            "***Invalid command. Available commands: play, play coffee, play NICKNAME, play NICKNAME coffee, y/n (for invitations), score, players, R, P, S***");
-                }
+        // One heartbeat datagram, built once: an interface's own address, sent to
+        // its subnet's broadcast address or out of it to a multicast group
+        private final class Announcement {
+            final InetAddress local;
+            final DatagramPacket packet;
+            final NetworkInterface networkInterface; // Null: wherever the route goes
+
+            Announcement(InetAddress local, InetAddress target, NetworkInterface networkInterface) {
+                // A link-local scope names this host's interface, which means
+                // nothing to the client; it connects back through its own
+                String address = local.getHostAddress();
+                int scope = address.indexOf('%');
+                byte[] payload = ("RPS_SERVER:" + (scope < 0 ? address : address.substring(0, scope)) + ":"
+                        + serverPort).getBytes(StandardCharsets.UTF_8);
+                this.local = local;
+                this.packet = new DatagramPacket(payload, payload.length, target, HEARTBEAT_PORT);
+                this.networkInterface = networkInterface;
             }
-        } catch (IOException e) {
-            System.out.println("Error handling client: " + e.getMessage());
-        } finally {
-            try {
-                if (nickname != null) {
-                    server.removeClient(nickname);
-                }
-                in.close();
-                out.close();
-                clientSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+
+            @Override
+            public String toString() {
+                return local.getHostAddress() + " to " + packet.getAddress().getHostAddress()
+                        + (networkInterface != null ? " on " + networkInterface.getName() : "");
             }
         }
     }
-}
\ No newline at end of file
+}
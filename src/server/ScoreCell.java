@@ -0,0 +1,47 @@
+package src.server;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+// One player's score in JournaledScoreStore, read and changed with atomic
+// instructions instead of a table lock. It is flagged while a write of it
+// is queued for the ScoreWriter, which journals whatever the score is by
+// then: changes that land while it waits share the one record, and the
+// journal never ends on a stale value however the updates were ordered.
+final class ScoreCell {
+    private static final AtomicIntegerFieldUpdater<ScoreCell> SCORE =
+            AtomicIntegerFieldUpdater.newUpdater(ScoreCell.class, "score");
+    private static final AtomicIntegerFieldUpdater<ScoreCell> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(ScoreCell.class, "queued");
+
+    private volatile int score;
+    private volatile int queued; // 1 while a write is queued
+
+    ScoreCell(int score) {
+        this.score = score;
+    }
+
+    int get() {
+        return score;
+    }
+
+    void set(int score) {
+        this.score = score;
+    }
+
+    int incrementAndGet() {
+        return SCORE.incrementAndGet(this);
+    }
+
+    // After a change: true if the caller has to queue a write, false if one
+    // already is and will pick the change up
+    boolean markQueued() {
+        return queued == 0 && QUEUED.compareAndSet(this, 0, 1);
+    }
+
+    // ScoreWriter thread: the score to journal. Clears the flag before
+    // reading, so a change made after the read queues a write of its own.
+    int takeQueued() {
+        queued = 0;
+        return score;
+    }
+}
@@ -0,0 +1,318 @@
+package src.server;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Append-only persistence for player scores. Every change is appended to
+// <scores file>.journal as a (nickname, new score) record, so a write costs a
+// few bytes no matter how many players there are. Once the journal grows past
+// the size of the score table it is compacted into a full snapshot in the
+// scores file itself.
+//
+// Records hold absolute scores rather than +1 deltas, which makes replay
+// idempotent: if the server dies half-way through a compaction, replaying a
+// journal that is already folded into the snapshot changes nothing.
+//
+// Snapshot format, all big-endian:
+//   int magic "RPSS", int version, int entry count,
+//   entries of (modified UTF-8 nickname with 2-byte length, int score),
+//   int CRC32 of everything before it
+// Older servers wrote a serialized HashMap instead; such a file is converted
+// the first time it is loaded and kept as <scores file>.ser.bak.
+//
+// Not thread-safe: only used by the ScoreWriter thread after load().
+class ScoreJournal {
+    private static final int MIN_COMPACTION_RECORDS = 10000;
+    private static final int SNAPSHOT_MAGIC = 0x52505353; // "RPSS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SERIALIZED_MAGIC = 0xACED; // java.io serialization stream header
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_NICKNAME_BYTES = 65535; // writeUTF()'s 2-byte length
+
+    // Receives loaded scores. presize() comes first with the snapshot's entry
+    // count; journal replay may then add or overwrite entries.
+    interface Sink {
+        default void presize(int entries) {
+        }
+
+        void put(String nickname, int score);
+    }
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Path rotatedJournalFile; // Journal being folded into a snapshot
+    private FileOutputStream journalFileStream;
+    private DataOutputStream journal;
+    private int journalRecords;
+
+    ScoreJournal(String scoresFile) {
+        this.snapshotFile = Paths.get(scoresFile);
+        this.journalFile = Paths.get(scoresFile + ".journal");
+        this.rotatedJournalFile = Paths.get(scoresFile + ".journal.old");
+    }
+
+    // Snapshot first, then any journal left over from an interrupted
+    // compaction, then the live journal
+    void load(Sink sink) throws IOException {
+        if (Files.exists(snapshotFile)) {
+            if (isSerializedSnapshot(snapshotFile)) {
+                migrateSerializedSnapshot(sink);
+            } else {
+                readSnapshot(snapshotFile, sink);
+            }
+        }
+
+        replay(rotatedJournalFile, sink);
+        journalRecords = replay(journalFile, sink);
+    }
+
+    // Entries go straight from the stream into the sink; nothing else is
+    // materialized
+    static void readSnapshot(Path file, Sink sink) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE), crc))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a scores file: " + file);
+            }
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported scores file version " + version + " in " + file);
+            }
+            int entries = in.readInt();
+            if (entries < 0) {
+                throw new IOException("Corrupt scores file " + file);
+            }
+            sink.presize(entries);
+            for (int i = 0; i < entries; i++) {
+                String nickname = in.readUTF();
+                sink.put(nickname, in.readInt());
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Checksum mismatch in scores file " + file);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated scores file " + file, e);
+        }
+    }
+
+    private static boolean isSerializedSnapshot(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readUnsignedShort() == SERIALIZED_MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    // Reads a scores file written by older servers
+    static Map<String, Integer> readSerializedSnapshot(Path file) throws IOException {
+        try (ObjectInputStream ois = new ScoreMapInputStream(
+                new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE))) {
+            @SuppressWarnings("unchecked")
+            Map<String, Integer> loadedScores = (Map<String, Integer>) ois.readObject();
+            return loadedScores;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable scores file " + file, e);
+        }
+    }
+
+    // One-time conversion to the binary format. The new snapshot holds exactly
+    // what the old one did, so the journals are still replayed on top of it.
+    private void migrateSerializedSnapshot(Sink sink) throws IOException {
+        Map<String, Integer> scores = readSerializedSnapshot(snapshotFile);
+        sink.presize(scores.size());
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            sink.put(entry.getKey(), entry.getValue());
+        }
+
+        Path backup = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".ser.bak");
+        Files.copy(snapshotFile, backup, StandardCopyOption.REPLACE_EXISTING);
+        replaceSnapshot(scores);
+        System.out.println("Converted " + snapshotFile + " to the binary scores format, old file kept as "
+                + backup);
+    }
+
+    // Returns the number of complete records; a torn record left by a crash
+    // mid-append is cut off so new records are not written after it
+    private static int replay(Path file, Sink sink) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        int records = 0;
+        long validLength = 0;
+        try (CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(file)));
+                DataInputStream in = new DataInputStream(counter)) {
+            while (true) {
+                String nickname;
+                int score;
+                try {
+                    nickname = in.readUTF();
+                    score = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                sink.put(nickname, score);
+                records++;
+                validLength = counter.count;
+            }
+        }
+
+        if (validLength < Files.size(file)) {
+            System.err.println("Discarding incomplete record at the end of " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return records;
+    }
+
+    // False if the nickname is too long for a record: over 65535 bytes of
+    // modified UTF-8, as writeUTF() counts them
+    static boolean canRecord(String nickname) {
+        long bytes = 0;
+        for (int i = 0; i < nickname.length(); i++) {
+            char c = nickname.charAt(i);
+            bytes += c >= 1 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+        }
+        return bytes <= MAX_NICKNAME_BYTES;
+    }
+
+    void append(String nickname, int score) throws IOException {
+        if (journal == null) {
+            journal = openJournal();
+        }
+        journal.writeUTF(nickname);
+        journal.writeInt(score);
+        journalRecords++;
+    }
+
+    // Writes buffered records and forces them to disk
+    void sync() throws IOException {
+        if (journal != null) {
+            journal.flush();
+            journalFileStream.getFD().sync();
+        }
+    }
+
+    boolean needsCompaction(int tableSize) {
+        return journalRecords >= Math.max(MIN_COMPACTION_RECORDS, tableSize);
+    }
+
+    // First half of a compaction: starts a new journal. Every record in the
+    // rotated one must already be in the table that writeSnapshot() is given.
+    void rotate() throws IOException {
+        if (journal != null) {
+            DataOutputStream old = journal;
+            journal = null; // Even if closing fails, e.g. after a failed write
+            old.close();
+        }
+        if (Files.exists(journalFile)) {
+            if (Files.exists(rotatedJournalFile)) {
+                // An earlier compaction never finished; keep its records too
+                try (OutputStream out = Files.newOutputStream(rotatedJournalFile, StandardOpenOption.APPEND)) {
+                    Files.copy(journalFile, out);
+                }
+                Files.delete(journalFile);
+            } else {
+                Files.move(journalFile, rotatedJournalFile);
+            }
+        }
+        journalRecords = 0;
+    }
+
+    // Second half of a compaction. The snapshot replaces the old one atomically before the rotated journal is
+    // dropped, so a crash at any point still recovers every score.
+    void writeSnapshot(Map<String, Integer> scores) throws IOException {
+        replaceSnapshot(scores);
+        Files.deleteIfExists(rotatedJournalFile);
+    }
+
+    private void replaceSnapshot(Map<String, Integer> scores) throws IOException {
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+            writeSnapshot(new BufferedOutputStream(fos, IO_BUFFER_SIZE), scores);
+            fos.getFD().sync();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Flushes but does not close out
+    static void writeSnapshot(OutputStream out, Map<String, Integer> scores) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeInt(SNAPSHOT_VERSION);
+        data.writeInt(scores.size());
+        for (Map.Entry<String, Integer> entry : scores.entrySet()) {
+            data.writeUTF(entry.getKey());
+            data.writeInt(entry.getValue());
+        }
+        data.writeInt((int) checked.getChecksum().getValue());
+        data.flush();
+    }
+
+    void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        journalFileStream = new FileOutputStream(journalFile.toFile(), true);
+        return new DataOutputStream(new BufferedOutputStream(journalFileStream));
+    }
+
+    // Only lets the classes of a HashMap<String, Integer> through, so an old
+    // scores file cannot be used to instantiate anything else
+    private static final class ScoreMapInputStream extends ObjectInputStream {
+        ScoreMapInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            if (!name.equals(HashMap.class.getName()) && !name.equals(Integer.class.getName())
+                    && !name.equals(Number.class.getName()) && !name.equals(String.class.getName())) {
+                throw new InvalidClassException(name, "not allowed in a scores file");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
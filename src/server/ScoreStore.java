@@ -0,0 +1,33 @@
+package src.server;
+
+import java.io.IOException;
+
+// Where player scores live. Implementations are thread-safe. Once closed a
+// store refuses changes, saying so on stderr: set() does nothing and
+// increment() returns -1.
+interface ScoreStore {
+    // Loads or maps the saved scores; later calls do nothing
+    void open() throws IOException;
+
+    int get(String nickname);
+
+    void set(String nickname, int score);
+
+    // Returns the player's new score
+    int increment(String nickname);
+
+    // Adds the player with a score of 0; returns false if they already had one
+    boolean addIfAbsent(String nickname);
+
+    // False if the nickname can never be stored (e.g. too long for a fixed-width slot)
+    boolean canStore(String nickname);
+
+    int size();
+
+    // Hands every stored score to the sink. Consistent while nothing changes
+    // scores; a store may or may not block changes meanwhile
+    void forEach(ScoreJournal.Sink sink);
+
+    // Makes every change durable and releases files and threads
+    void close();
+}
@@ -0,0 +1,240 @@
+package src.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+// Takes score changes off the game threads and commits them to the
+// ScoreJournal in groups: one fsync covers every change queued within the
+// flush interval, or a full batch, whichever comes first. Also runs journal
+// compaction, so nothing on the game path ever waits for the disk. A
+// queued change is a player's ScoreCell rather than a value, and the cell's
+// score at commit time is what gets journaled, so game threads queue
+// changes without a lock and without caring about their order.
+class ScoreWriter implements Runnable {
+    private static final long IDLE_POLL_MILLIS = 100; // How often an idle writer checks for shutdown
+    private static final long RETRY_MILLIS = 1000; // After the disk fails, before trying again
+
+    private static final class Update {
+        final String nickname;
+        final ScoreCell cell;
+        final long queuedAt; // Of the oldest change it covers
+
+        Update(String nickname, ScoreCell cell) {
+            this.nickname = nickname;
+            this.cell = cell;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    private final ScoreJournal journal;
+    private final IntSupplier tableSize;
+    private final Supplier<Map<String, Integer>> tableCopy;
+    private final long flushIntervalNanos;
+    private final int batchSize;
+    private final LatencyHistogram commitTimes; // Appending and fsyncing one batch
+    private final BlockingQueue<Update> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean finished; // Set before the last drain; later changes are not taken
+
+    // Durability stats, written by the writer thread only
+    private volatile long commits;
+    private volatile long committedUpdates;
+    private volatile long lastLagNanos;
+    private volatile long maxLagNanos;
+
+    ScoreWriter(ScoreJournal journal, IntSupplier tableSize, Supplier<Map<String, Integer>> tableCopy,
+            long flushIntervalMillis, int batchSize, LatencyHistogram commitTimes) {
+        this.journal = journal;
+        this.tableSize = tableSize;
+        this.tableCopy = tableCopy;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.batchSize = Math.max(1, batchSize);
+        this.commitTimes = commitTimes;
+        this.thread = new Thread(this, "rps-score-writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        if (thread.getState() == Thread.State.NEW) {
+            thread.start();
+        }
+    }
+
+    // After every change to the cell; queues nothing if a write of it is
+    // already waiting. False if the writer has stopped without taking the
+    // change, which is then not saved.
+    boolean submit(String nickname, ScoreCell cell) {
+        if (!cell.markQueued()) {
+            return true;
+        }
+        Update update = new Update(nickname, cell);
+        queue.add(update);
+        // Either the writer's last drain sees the update, or this sees
+        // finished; an update it took anyway is no longer in the queue
+        return !finished || !queue.remove(update);
+    }
+
+    // Commits everything already submitted, compacts the journal into a
+    // snapshot and stops the writer thread
+    void shutdown() {
+        running = false;
+        if (thread.getState() == Thread.State.NEW) {
+            run(); // Never started; drain on the caller's thread
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Update> batch = new ArrayList<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                Update first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Group commit: keep collecting until the oldest update has
+                // waited a full interval or the batch is full
+                long deadline = first.queuedAt + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Update next = running && wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                boolean committed = commit(batch);
+                batch.clear();
+
+                if (!committed) {
+                    if (!running) {
+                        break; // The compaction below is the last try
+                    }
+                    // The journal may now end in a torn record. A snapshot of
+                    // the whole table replaces it, changes put back included.
+                    if (!compact()) {
+                        Thread.sleep(RETRY_MILLIS);
+                    }
+                } else if (journal.needsCompaction(tableSize.getAsInt())) {
+                    compact();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything submitted while the loop was ending
+        finished = true;
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            commit(batch);
+        }
+        compact();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.println("Error saving scores: " + e.getMessage());
+        }
+    }
+
+    // False if the batch could not be made durable; it is queued again
+    private boolean commit(List<Update> batch) {
+        long start = System.nanoTime();
+        int taken = 0;
+        try {
+            for (Update update : batch) {
+                journal.append(update.nickname, update.cell.takeQueued());
+                taken++;
+            }
+            journal.sync();
+        } catch (IOException e) {
+            System.err.println("Error saving scores: " + e.getMessage());
+            requeue(batch, taken);
+            return false;
+        }
+
+        long now = System.nanoTime();
+        commitTimes.record(now - start);
+        long lag = now - batch.get(0).queuedAt;
+        lastLagNanos = lag;
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+        commits++;
+        committedUpdates += batch.size();
+        return true;
+    }
+
+    // None of a failed batch is known to be on disk. Cells not yet taken
+    // are still flagged as queued, so they go straight back; taken ones are
+    // queued again unless a newer change already has been.
+    private void requeue(List<Update> batch, int taken) {
+        for (int i = 0; i < batch.size(); i++) {
+            Update update = batch.get(i);
+            if (i >= taken || update.cell.markQueued()) {
+                queue.add(update);
+            }
+        }
+    }
+
+    // Rotating first means every record in the rotated journal predates the
+    // table copy; anything submitted after the rotation lands in the new journal.
+    // The copy need not be a point-in-time one: a score that changes while
+    // it is taken has a write queued, which the new journal replays on top.
+    private boolean compact() {
+        try {
+            journal.rotate();
+            Map<String, Integer> snapshot = tableCopy.get();
+            journal.writeSnapshot(snapshot);
+            System.out.println("Saved " + snapshot.size() + " player scores to file.");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving scores: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    int getPendingUpdates() {
+        return queue.size();
+    }
+
+    // Age of the oldest score change that is not yet on disk
+    long getDurabilityLagMillis() {
+        Update oldest = queue.peek();
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queuedAt);
+    }
+
+    long getLastCommitLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLagNanos);
+    }
+
+    long getMaxCommitLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+    }
+
+    long getCommits() {
+        return commits;
+    }
+
+    long getCommittedUpdates() {
+        return committedUpdates;
+    }
+}
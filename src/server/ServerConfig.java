@@ -0,0 +1,307 @@
+package src.server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Startup options for RPSServer, parsed from the command line:
+//   rps_server [port] [--option=value ...], see usage() for the options
+class ServerConfig {
+    static final int DEFAULT_PORT = 5000;
+    static final String DEFAULT_SCORES_FILE = "player_scores.dat";
+    static final String DEFAULT_DISCOVERY_GROUP = "239.255.83.80"; // Clients join it too (see src.client.DiscoverySocket)
+
+    enum Transport {
+        THREAD, // One blocking reader thread per client, writes on a shared pool (default)
+        VIRTUAL, // One blocking virtual thread per client (Java 21+)
+        NIO // Selector-based event loops
+    }
+
+    enum Discovery {
+        BROADCAST, // To every IPv4 interface's broadcast address (default)
+        MULTICAST, // To the discovery groups, for networks that drop broadcast
+        BOTH,
+        OFF
+    }
+
+    enum ScoreBackend {
+        JOURNAL, // HashMap on the heap plus an append-only journal (default)
+        MAPPED // Memory-mapped hash table file
+    }
+
+    private int port = DEFAULT_PORT;
+    private Transport transport = Transport.THREAD;
+    private int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private String scoresFile = DEFAULT_SCORES_FILE;
+    private ScoreBackend scoreBackend = ScoreBackend.JOURNAL;
+    private int flushIntervalMillis = 50; // Longest a score change waits for fsync
+    private int flushBatch = 512; // Score changes per fsync at most
+    private int maxOutboundKb = 64; // Unwritten output held per client
+    private int maxDroppedMessages = 100; // Before a client that does not read is disconnected
+    private String adminToken; // Unlocks admin commands such as 'stats'; none by default
+    private String metricsFile; // Rewritten with the server metrics every metricsIntervalSeconds
+    private int metricsIntervalSeconds = 60;
+    private int pingIntervalSeconds = 30; // Silent players are pinged; 0 = never
+    private int idleTimeoutSeconds = 600; // Without commands in the lobby; 0 = no limit
+    private int gameIdleTimeoutSeconds = 120; // Without commands in a match; 0 = no limit
+    private int moveTimeoutSeconds = 30; // Per round, then the round is forfeited; 0 = no limit
+    private int invitationTtlSeconds = 60; // Unanswered invitations expire; 0 = never
+    private int maxConnections = 10000; // Open at once, registered or not; 0 = no limit
+    private int maxConnectionsPerAddress = 0; // From one IP address; 0 = no limit
+    private int maxAcceptsPerSecond = 0; // New connections; 0 = no limit
+    private int commandRate = 20; // Lines per second from one client; 0 = no limit
+    private int expensiveCommandRate = 4; // Of those, matchmaking, 'players', 'top' and the like
+    private Discovery discovery = Discovery.BROADCAST;
+    private List<InetAddress> discoveryGroups = Collections.singletonList(multicastGroup(DEFAULT_DISCOVERY_GROUP));
+    private int discoveryBurst = 0; // Extra heartbeats right after startup
+
+    static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                try {
+                    config.port = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid port number. Using default port " + DEFAULT_PORT);
+                }
+                continue;
+            }
+
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+
+            try {
+                switch (name) {
+                    case "transport":
+                        config.transport = Transport.valueOf(value.toUpperCase());
+                        break;
+                    case "event-loops":
+                        config.eventLoops = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "scores-file":
+                        config.scoresFile = value;
+                        break;
+                    case "score-store":
+                        config.scoreBackend = ScoreBackend.valueOf(value.toUpperCase());
+                        break;
+                    case "flush-interval-ms":
+                        config.flushIntervalMillis = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "flush-batch":
+                        config.flushBatch = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "max-outbound-kb":
+                        config.maxOutboundKb = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "max-dropped-messages":
+                        config.maxDroppedMessages = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "admin-token":
+                        config.adminToken = value.isEmpty() ? null : value;
+                        break;
+                    case "metrics-file":
+                        config.metricsFile = value.isEmpty() ? null : value;
+                        break;
+                    case "metrics-interval-s":
+                        config.metricsIntervalSeconds = Math.max(1, Integer.parseInt(value));
+                        break;
+                    case "ping-interval-s":
+                        config.pingIntervalSeconds = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "idle-timeout-s":
+                        config.idleTimeoutSeconds = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "game-idle-timeout-s":
+                        config.gameIdleTimeoutSeconds = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "move-timeout-s":
+                        config.moveTimeoutSeconds = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "invitation-ttl-s":
+                        config.invitationTtlSeconds = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "max-connections":
+                        config.maxConnections = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "max-connections-per-ip":
+                        config.maxConnectionsPerAddress = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "max-accepts-per-s":
+                        config.maxAcceptsPerSecond = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "command-rate":
+                        config.commandRate = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "expensive-command-rate":
+                        config.expensiveCommandRate = Math.max(0, Integer.parseInt(value));
+                        break;
+                    case "discovery":
+                        config.discovery = Discovery.valueOf(value.toUpperCase());
+                        break;
+                    case "discovery-group":
+                        List<InetAddress> groups = new ArrayList<>();
+                        for (String group : value.split(",")) {
+                            groups.add(multicastGroup(group.trim()));
+                        }
+                        config.discoveryGroups = groups;
+                        break;
+                    case "discovery-burst":
+                        config.discoveryBurst = Math.max(0, Integer.parseInt(value));
+                        break;
+                    default:
+                        System.err.println("Unknown option '" + arg + "' ignored");
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid value for option '" + arg + "' ignored");
+            }
+        }
+
+        return config;
+    }
+
+    static String usage() {
+        return "Usage: java -cp bin src.server.RPSServer [port] [options]\n"
+                + "  --transport=thread|virtual|nio  how client connections are served (default thread)\n"
+                + "  --event-loops=N                 NIO event loop threads (default: CPU cores)\n"
+                + "  --scores-file=PATH              score snapshot file (default " + DEFAULT_SCORES_FILE + ")\n"
+                + "  --score-store=journal|mapped    in-memory table with journal, or memory-mapped file (default journal)\n"
+                + "  --flush-interval-ms=N           max delay before score changes are fsynced (default 50)\n"
+                + "  --flush-batch=N                 max score changes per fsync (default 512)\n"
+                + "  --max-outbound-kb=N             unsent output held per client before messages are dropped (default 64)\n"
+                + "  --max-dropped-messages=N        dropped messages before a client is disconnected (default 100)\n"
+                + "  --admin-token=TOKEN             lets 'admin TOKEN' unlock admin commands such as 'stats' (default: none)\n"
+                + "  --metrics-file=PATH             write the server metrics to this file periodically (default: off)\n"
+                + "  --metrics-interval-s=N          seconds between metrics file updates (default 60)\n"
+                + "  --ping-interval-s=N             ping players silent this long, drop them after 3x (default 30, 0 = off)\n"
+                + "  --idle-timeout-s=N              disconnect players sending no commands this long (default 600, 0 = off)\n"
+                + "  --game-idle-timeout-s=N         the same while in a match (default 120, 0 = off)\n"
+                + "  --move-timeout-s=N              seconds to make a move before the round is forfeited (default 30, 0 = off)\n"
+                + "  --invitation-ttl-s=N            seconds before an unanswered invitation expires (default 60, 0 = never)\n"
+                + "  --max-connections=N             open connections before new ones are turned away (default 10000, 0 = no limit)\n"
+                + "  --max-connections-per-ip=N      open connections from one IP address (default 0 = no limit)\n"
+                + "  --max-accepts-per-s=N           new connections accepted per second (default 0 = no limit)\n"
+                + "  --command-rate=N                commands per second from one client before they are dropped (default 20, 0 = no limit)\n"
+                + "  --expensive-command-rate=N      of those, play, y/n, players, top, watch and admin commands (default 4, 0 = no limit)\n"
+                + "  --discovery=broadcast|multicast|both|off  how the server announces itself to clients (default broadcast)\n"
+                + "  --discovery-group=ADDR[,ADDR]   IPv4 or IPv6 multicast groups to announce to (default " + DEFAULT_DISCOVERY_GROUP + ")\n"
+                + "  --discovery-burst=N             announcements in quick succession right after startup (default 0)";
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    Transport getTransport() {
+        return transport;
+    }
+
+    int getEventLoops() {
+        return eventLoops;
+    }
+
+    String getScoresFile() {
+        return scoresFile;
+    }
+
+    ScoreBackend getScoreBackend() {
+        return scoreBackend;
+    }
+
+    int getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    int getFlushBatch() {
+        return flushBatch;
+    }
+
+    int getMaxOutboundBytes() {
+        return maxOutboundKb * 1024;
+    }
+
+    int getMaxDroppedMessages() {
+        return maxDroppedMessages;
+    }
+
+    String getAdminToken() {
+        return adminToken;
+    }
+
+    String getMetricsFile() {
+        return metricsFile;
+    }
+
+    int getMetricsIntervalSeconds() {
+        return metricsIntervalSeconds;
+    }
+
+    int getPingIntervalSeconds() {
+        return pingIntervalSeconds;
+    }
+
+    int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    int getGameIdleTimeoutSeconds() {
+        return gameIdleTimeoutSeconds;
+    }
+
+    int getMoveTimeoutSeconds() {
+        return moveTimeoutSeconds;
+    }
+
+    int getInvitationTtlSeconds() {
+        return invitationTtlSeconds;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    int getMaxAcceptsPerSecond() {
+        return maxAcceptsPerSecond;
+    }
+
+    int getCommandRate() {
+        return commandRate;
+    }
+
+    int getExpensiveCommandRate() {
+        return expensiveCommandRate;
+    }
+
+    Discovery getDiscovery() {
+        return discovery;
+    }
+
+    List<InetAddress> getDiscoveryGroups() {
+        return discoveryGroups;
+    }
+
+    int getDiscoveryBurst() {
+        return discoveryBurst;
+    }
+
+    // Resolved once here, so the heartbeat never looks anything up
+    private static InetAddress multicastGroup(String address) {
+        InetAddress group;
+        try {
+            group = InetAddress.getByName(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(address, e);
+        }
+        if (!group.isMulticastAddress()) {
+            throw new IllegalArgumentException(address + " is not a multicast address");
+        }
+        return group;
+    }
+}
@@ -0,0 +1,141 @@
+package src.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Deadlines for game events (move timeouts, invitation expiry), kept in a
+// hashed timing wheel: a ring of buckets, one per tick, each a doubly
+// linked list of timeouts. Scheduling and cancelling are O(1) whatever the
+// number of pending timeouts, so one can be set for every round and every
+// invitation and cancelled again as soon as the event happens first. The
+// server's scheduler calls advance() every tick; a timeout more than one
+// turn of the wheel away just stays in its bucket until its turn comes.
+// Timeouts fire on the scheduler thread, up to a tick late, with no lock
+// held, so their tasks may take gameLock or a match lock. The wheel's own
+// lock is a leaf: it is held only to link or unlink timeouts.
+class TimerWheel {
+    // A scheduled task; cancel() before it fires and it never runs
+    final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        private Timeout prev; // Both null once fired or cancelled
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        // Sentinel of a bucket: an empty bucket links to itself
+        private Timeout() {
+            this(null, 0);
+            prev = this;
+            next = this;
+        }
+
+        // False if it has already fired or been cancelled
+        boolean cancel() {
+            lock.lock();
+            try {
+                if (prev == null) {
+                    return false;
+                }
+                unlink(this);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long tickNanos;
+    private final Timeout[] buckets; // Length a power of two
+    private final int mask;
+    private final long startNanos;
+    private long tick; // Last tick processed; guarded by lock
+    private int pending; // Guarded by lock
+
+    TimerWheel(long tickMillis, int bucketCount) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1;
+        this.buckets = new Timeout[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Timeout();
+        }
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+    }
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startNanos + unit.toNanos(delay);
+        long ticks = (deadline + tickNanos - 1) / tickNanos; // Never early, rounded up to a tick
+        lock.lock();
+        try {
+            Timeout timeout = new Timeout(task, Math.max(ticks, tick + 1));
+            Timeout bucket = buckets[(int) (timeout.deadlineTick & mask)];
+            timeout.prev = bucket.prev;
+            timeout.next = bucket;
+            bucket.prev.next = timeout;
+            bucket.prev = timeout;
+            pending++;
+            return timeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getPending() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Scheduler thread. Fires everything due by now; after a stall it visits
+    // each bucket at most once, however many ticks it missed
+    void advance() {
+        long now = (System.nanoTime() - startNanos) / tickNanos;
+        List<Timeout> due = new ArrayList<>();
+        lock.lock();
+        try {
+            for (long t = Math.max(tick + 1, now - mask); t <= now; t++) {
+                Timeout bucket = buckets[(int) (t & mask)];
+                Timeout timeout = bucket.next;
+                while (timeout != bucket) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= now) {
+                        unlink(timeout);
+                        due.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+            tick = Math.max(tick, now);
+        } finally {
+            lock.unlock();
+        }
+
+        for (Timeout timeout : due) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                // One failing task must not stop the others
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Caller holds lock
+    private void unlink(Timeout timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        pending--;
+    }
+}
@@ -0,0 +1,35 @@
+package src.server;
+
+import java.util.concurrent.TimeUnit;
+
+// Allows events at `rate` per second on average and up to `burst` at once:
+// each event takes a token, and tokens come back continuously at the rate,
+// up to the burst. Not thread-safe; each owner either confines it to one
+// thread or guards it with its own lock.
+final class TokenBucket {
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    // Starts full
+    TokenBucket(double rate, double burst) {
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    // now is System.nanoTime(); false if no token is left
+    boolean tryTake(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * rate / NANOS_PER_SECOND);
+        refilledAt = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package src.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+// FIFO of players waiting for a random opponent. Enqueue, dequeue and removal
+// on disconnect are all O(1), so matchmaking cost no longer grows with the
+// lobby. Not thread-safe: guarded by RPSServer.gameLock.
+class WaitingQueue {
+    private final LinkedHashSet<ClientHandler> players = new LinkedHashSet<>();
+
+    // Keeps the player's original position if they are already queued
+    void add(ClientHandler player) {
+        players.add(player);
+    }
+
+    boolean remove(ClientHandler player) {
+        return players.remove(player);
+    }
+
+    boolean contains(ClientHandler player) {
+        return players.contains(player);
+    }
+
+    // Longest-waiting player other than the given one, or null
+    ClientHandler peekOther(ClientHandler exclude) {
+        Iterator<ClientHandler> it = players.iterator();
+        while (it.hasNext()) {
+            ClientHandler player = it.next();
+            if (player != exclude) {
+                return player;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return players.size();
+    }
+}